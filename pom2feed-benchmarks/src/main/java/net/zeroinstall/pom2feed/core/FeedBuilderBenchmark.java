@@ -0,0 +1,126 @@
+package net.zeroinstall.pom2feed.core;
+
+import static com.google.common.base.Charsets.UTF_8;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Model;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures adding metadata and implementations to a feed. Remote calls are
+ * answered by a stubbed {@link HttpTransport}, so only the local work is
+ * measured. Each operation starts a new feed; {@link #createBuilder()} is the
+ * baseline for that.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedBuilderBenchmark {
+
+    final static String HASH = "a54c2c2d7c7f3b6e5a8d4f6b2e1c0d9f8a7b6c5d";
+    final static long SIZE = 123456;
+    private URL mavenRepository;
+    private URL pom2feedService;
+    private Model model;
+    private HttpTransport originalTransport;
+
+    @Setup
+    public void setUp() throws IOException {
+        mavenRepository = new URL("http://repo.maven.apache.org/maven2/");
+        pom2feedService = new URL("http://maven.0install.net/");
+        model = createModel("1.2.3");
+
+        originalTransport = HttpTransport.getDefault();
+        HttpTransport.setDefault(new StubTransport());
+    }
+
+    @TearDown
+    public void tearDown() {
+        HttpTransport.setDefault(originalTransport);
+    }
+
+    /**
+     * Creates a typical model of a JAR artifact with a mix of dependencies.
+     */
+    static Model createModel(String version) {
+        Model model = new Model();
+        model.setGroupId("com.example.benchmark");
+        model.setArtifactId("library");
+        model.setVersion(version);
+        model.setPackaging("jar");
+        model.setName("Benchmark Library");
+        model.setDescription("A library used to benchmark feed generation.");
+        model.setUrl("http://example.com/library");
+        model.addDependency(createDependency("com.google.guava", "guava", "20.0", null));
+        model.addDependency(createDependency("org.slf4j", "slf4j-api", "[1.7,1.8)", null));
+        model.addDependency(createDependency("org.apache.commons", "commons-lang3", "3.7", "runtime"));
+        model.addDependency(createDependency("junit", "junit", "4.12", "test"));
+        Dependency optional = createDependency("com.fasterxml.jackson.core", "jackson-databind", "2.9.5", null);
+        optional.setOptional(true);
+        model.addDependency(optional);
+        return model;
+    }
+
+    private static Dependency createDependency(String groupId, String artifactId, String version, String scope) {
+        Dependency dependency = new Dependency();
+        dependency.setGroupId(groupId);
+        dependency.setArtifactId(artifactId);
+        dependency.setVersion(version);
+        dependency.setScope(scope);
+        return dependency;
+    }
+
+    @Benchmark
+    public FeedBuilder createBuilder() {
+        return new FeedBuilder(mavenRepository, pom2feedService);
+    }
+
+    @Benchmark
+    public FeedBuilder addMetadata() {
+        return new FeedBuilder(mavenRepository, pom2feedService).addMetadata(model);
+    }
+
+    @Benchmark
+    public FeedBuilder addRemoteImplementation() throws IOException {
+        return new FeedBuilder(mavenRepository, pom2feedService).addRemoteImplementation(model);
+    }
+
+    @Benchmark
+    public FeedBuilder addRemoteImplementationKnownFile() {
+        return new FeedBuilder(mavenRepository, pom2feedService).addRemoteImplementation(model, SIZE, HASH);
+    }
+
+    @Benchmark
+    public String getSha1ManifestDigest() {
+        return ManifestUtils.getSha1ManifestDigest(HASH, SIZE, "library-1.2.3.jar");
+    }
+
+    /**
+     * Answers requests for file sizes and hashes without any I/O.
+     */
+    private static class StubTransport extends HttpTransport {
+
+        private final byte[] hashFile = (HASH + "  library-1.2.3.jar\n").getBytes(UTF_8);
+
+        StubTransport() {
+            super(1, 1, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public InputStream openStream(URL url) {
+            return new ByteArrayInputStream(hashFile);
+        }
+
+        @Override
+        public long getContentLength(URL url) {
+            return SIZE;
+        }
+    }
+}
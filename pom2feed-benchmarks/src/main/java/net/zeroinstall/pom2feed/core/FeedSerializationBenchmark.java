@@ -0,0 +1,72 @@
+package net.zeroinstall.pom2feed.core;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import static net.zeroinstall.publish.FeedUtils.getFeedString;
+import net.zeroinstall.model.InterfaceDocument;
+import org.apache.maven.model.Model;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures serializing feeds with different numbers of implementations,
+ * comparing {@link FeedBuilder} followed by
+ * {@link net.zeroinstall.publish.FeedUtils#getFeedString} with
+ * {@link StreamingFeedBuilder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedSerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int implementations;
+    private URL mavenRepository;
+    private URL pom2feedService;
+    private Model[] models;
+    private InterfaceDocument document;
+
+    @Setup
+    public void setUp() throws IOException {
+        mavenRepository = new URL("http://repo.maven.apache.org/maven2/");
+        pom2feedService = new URL("http://maven.0install.net/");
+        models = new Model[implementations];
+        for (int i = 0; i < implementations; i++) {
+            models[i] = FeedBuilderBenchmark.createModel("1." + (i / 10) + "." + (i % 10));
+        }
+        document = buildFeed().getDocument();
+    }
+
+    private FeedBuilder buildFeed() {
+        FeedBuilder builder = new FeedBuilder(mavenRepository, pom2feedService)
+                .addMetadata(models[models.length - 1]);
+        for (Model model : models) {
+            builder.addRemoteImplementation(model, FeedBuilderBenchmark.SIZE, FeedBuilderBenchmark.HASH);
+        }
+        return builder;
+    }
+
+    @Benchmark
+    public String serialize() throws IOException {
+        return getFeedString(document, null);
+    }
+
+    @Benchmark
+    public String buildAndSerialize() throws IOException {
+        return getFeedString(buildFeed().getDocument(), null);
+    }
+
+    @Benchmark
+    public void streamFeed() throws IOException {
+        StreamingFeedBuilder builder = new StreamingFeedBuilder(mavenRepository, pom2feedService, ByteStreams.nullOutputStream())
+                .writeHeader(models[models.length - 1], "http://maven.0install.net/com/example/benchmark/library/");
+        for (Model model : models) {
+            builder.addRemoteImplementation(model, FeedBuilderBenchmark.SIZE, FeedBuilderBenchmark.HASH);
+        }
+        builder.finish();
+    }
+}
@@ -0,0 +1,37 @@
+package net.zeroinstall.pom2feed.core;
+
+import com.google.common.io.Resources;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.xml.xpath.XPathExpressionException;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+/**
+ * Measures parsing <code>maven-metadata.xml</code> files taken from Maven
+ * Central: a small one (commons-io, 34 versions) and a huge one
+ * (aws-java-sdk-core, 1000 versions).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MavenMetadataBenchmark {
+
+    @Param({"small", "huge"})
+    public String size;
+    private byte[] data;
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Resources.toByteArray(Resources.getResource(MavenMetadataBenchmark.class, "metadata-" + size + ".xml"));
+    }
+
+    @Benchmark
+    public MavenMetadata parse() throws IOException, SAXException, XPathExpressionException {
+        return MavenMetadata.parse(new ByteArrayInputStream(data));
+    }
+}
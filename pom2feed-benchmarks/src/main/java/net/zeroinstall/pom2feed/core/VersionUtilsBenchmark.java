@@ -0,0 +1,71 @@
+package net.zeroinstall.pom2feed.core;
+
+import static com.google.common.base.Charsets.UTF_8;
+import com.google.common.io.Resources;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the conversion of Maven versions and version ranges over a corpus
+ * of version strings published on Maven Central. Each operation converts the
+ * whole corpus.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VersionUtilsBenchmark {
+
+    private String[] versions;
+    private String[] ranges;
+
+    @Setup
+    public void setUp() throws IOException {
+        versions = loadVersions();
+
+        // Combine neighbouring versions into the range forms found in POMs
+        List<String> rangeList = new ArrayList<String>();
+        for (int i = 0; i + 1 < versions.length; i += 4) {
+            String lower = versions[i];
+            String upper = versions[i + 1];
+            rangeList.add("[" + lower + "," + upper + ")");
+            rangeList.add("[" + lower + ",)");
+            rangeList.add("(," + upper + "]");
+            rangeList.add("[" + lower + "],[" + upper + ",)");
+        }
+        ranges = rangeList.toArray(new String[rangeList.size()]);
+    }
+
+    /**
+     * Loads the version corpus, skipping comments.
+     */
+    static String[] loadVersions() throws IOException {
+        List<String> result = new ArrayList<String>();
+        for (String line : Resources.readLines(Resources.getResource(VersionUtilsBenchmark.class, "versions.txt"), UTF_8)) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                result.add(line);
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Benchmark
+    public void convertVersion(Blackhole blackhole) {
+        for (String version : versions) {
+            blackhole.consume(VersionUtils.convertVersion(version));
+        }
+    }
+
+    @Benchmark
+    public void convertRange(Blackhole blackhole) {
+        for (String range : ranges) {
+            blackhole.consume(VersionUtils.convertRange(range));
+        }
+    }
+}
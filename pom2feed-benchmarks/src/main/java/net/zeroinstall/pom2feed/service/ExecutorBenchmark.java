@@ -0,0 +1,98 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import net.zeroinstall.pom2feed.core.HttpTransport;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures performing many slow upstream requests concurrently on the
+ * executors used for feed generation, with platform threads and with virtual
+ * threads. Virtual threads require Java 21 or newer; older runtimes fall back
+ * to platform threads. Requests go to an embedded server that delays each
+ * response by 50 ms and has enough threads to handle all of them at the same
+ * time, so the server does not limit concurrency.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutorBenchmark {
+
+    /**
+     * The number of requests per operation.
+     */
+    private final static int REQUESTS = 2000;
+    /**
+     * The number of platform threads to compare virtual threads with.
+     */
+    private final static int PLATFORM_THREADS = 64;
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+    private Server server;
+    private List<URL> urls;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new Server(0);
+        server.setThreadPool(new QueuedThreadPool(REQUESTS + 100));
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(50);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                response.setContentType("text/xml");
+                response.getWriter().write("<project/>");
+            }
+        });
+        server.start();
+
+        int port = server.getConnectors()[0].getLocalPort();
+        urls = new ArrayList<URL>();
+        for (int i = 0; i < REQUESTS; i++) {
+            urls.add(new URL("http://localhost:" + port + "/artifact-" + i + ".pom"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Benchmark
+    public void upstreamRequests() throws Exception {
+        ExecutorService executor = new ExecutorFactory(virtualThreads).newFixedThreadPool("benchmark-%d", PLATFORM_THREADS);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final URL url : urls) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        HttpTransport.getDefault().openStream(url).close();
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -160,6 +160,26 @@ public class FeedBuilder {
         URL fileUrl = getArtifactFileUrl(mavenRepository, model.getGroupId(), model.getArtifactId(), model.getVersion(), model.getPackaging());
         long size = getRemoteFileSize(fileUrl);
         String hash = getRemoteWord(new URL(fileUrl.toString() + ".sha1"));
+        return addRemoteImplementation(model, size, hash);
+    }
+
+    /**
+     * Adds a "download single file" implementation to the feed using version
+     * and dependency information from a Maven model and file information that
+     * was already retrieved from the Maven repository.
+     *
+     * @param model The Maven model to extract the version and dependency
+     * information from.
+     * @param size The size of the artifact file in bytes.
+     * @param hash The hex-encoded sha1 hash of the artifact file.
+     * @return The {@link FeedBuilder} instance for calling further methods in a
+     * fluent fashion.
+     */
+    public FeedBuilder addRemoteImplementation(Model model, long size, String hash) {
+        checkNotNull(model);
+        checkNotNull(hash);
+
+        URL fileUrl = getArtifactFileUrl(mavenRepository, model.getGroupId(), model.getArtifactId(), model.getVersion(), model.getPackaging());
         String fileName = getArtifactFileName(model.getArtifactId(), model.getVersion(), model.getPackaging());
 
         Implementation implementation = addNewImplementation(model);
@@ -182,6 +202,21 @@ public class FeedBuilder {
         return this;
     }
 
+    /**
+     * Adds a copy of an existing implementation (e.g. from a previous version
+     * of the feed) to the feed.
+     *
+     * @param implementation The implementation to copy.
+     * @return The {@link FeedBuilder} instance for calling further methods in a
+     * fluent fashion.
+     */
+    public FeedBuilder addImplementation(Implementation implementation) {
+        checkNotNull(implementation);
+
+        feed.addNewImplementation().set(implementation);
+        return this;
+    }
+
     private void addClassPath(Implementation implementation, String fileName) {
         Environment classPath = implementation.addNewEnvironment();
         classPath.setName("CLASSPATH");
@@ -0,0 +1,171 @@
+package net.zeroinstall.pom2feed.core;
+
+import java.net.URL;
+import jdk.jfr.*;
+
+/**
+ * The Java Flight Recorder events reported by {@link TraceEvent}. Must only
+ * be used if the Java runtime provides JFR.
+ */
+final class FlightRecorderEvents {
+
+    private FlightRecorderEvents() {
+    }
+
+    /**
+     * Creates and starts an event of a specific kind.
+     *
+     * @return <code>null</code> if no recording includes the event.
+     */
+    static TraceEvent begin(TraceEvent.Kind kind) {
+        BaseEvent event;
+        switch (kind) {
+            case FEED_GENERATION:
+                event = new FeedGenerationEvent();
+                break;
+            case MODEL_BUILD:
+                event = new ModelBuildEvent();
+                break;
+            case METADATA_REQUEST:
+                event = new MetadataRequestEvent();
+                break;
+            case FILE_SIZE_REQUEST:
+                event = new FileSizeRequestEvent();
+                break;
+            case WORD_REQUEST:
+                event = new WordRequestEvent();
+                break;
+            case CACHE_LOAD:
+                event = new CacheLoadEvent();
+                break;
+            case SIGNING:
+                event = new SigningEvent();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown event kind: " + kind);
+        }
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return new RecordedTraceEvent(event);
+    }
+
+    /**
+     * Passes information to a JFR event.
+     */
+    private static class RecordedTraceEvent extends TraceEvent {
+
+        private final BaseEvent event;
+
+        RecordedTraceEvent(BaseEvent event) {
+            this.event = event;
+        }
+
+        @Override
+        public TraceEvent artifact(String artifactPath) {
+            event.artifactPath = artifactPath;
+            return this;
+        }
+
+        @Override
+        public TraceEvent version(String version) {
+            event.version = version;
+            return this;
+        }
+
+        @Override
+        public TraceEvent url(URL url) {
+            event.url = (url == null) ? null : url.toString();
+            return this;
+        }
+
+        @Override
+        public TraceEvent bytes(long bytes) {
+            event.bytes = bytes;
+            return this;
+        }
+
+        @Override
+        public TraceEvent outcome(String outcome) {
+            event.outcome = outcome;
+            return this;
+        }
+
+        @Override
+        public void succeeded() {
+            if (event.outcome == null) {
+                event.outcome = "success";
+            }
+        }
+
+        @Override
+        public void commit() {
+            event.end();
+            if (event.shouldCommit()) {
+                if (event.outcome == null) {
+                    event.outcome = "failure";
+                }
+                event.commit();
+            }
+        }
+    }
+
+    @Category("pom2feed")
+    abstract static class BaseEvent extends Event {
+
+        @Label("Artifact Path")
+        String artifactPath;
+        @Label("Version")
+        String version;
+        @Label("URL")
+        String url;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Outcome")
+        String outcome;
+    }
+
+    @Name("net.zeroinstall.pom2feed.FeedGeneration")
+    @Label("Feed Generation")
+    @Description("Generating a complete feed; bytes is the size of the feed")
+    static class FeedGenerationEvent extends BaseEvent {
+    }
+
+    @Name("net.zeroinstall.pom2feed.ModelBuild")
+    @Label("Model Build")
+    @Description("Building the effective Maven model of a version")
+    static class ModelBuildEvent extends BaseEvent {
+    }
+
+    @Name("net.zeroinstall.pom2feed.MetadataRequest")
+    @Label("Metadata Request")
+    @Description("Retrieving the versioning metadata of an artifact; bytes is the declared response size")
+    static class MetadataRequestEvent extends BaseEvent {
+    }
+
+    @Name("net.zeroinstall.pom2feed.FileSizeRequest")
+    @Label("File Size Request")
+    @Description("Determining the size of a remote file; bytes is the size of the file")
+    static class FileSizeRequestEvent extends BaseEvent {
+    }
+
+    @Name("net.zeroinstall.pom2feed.WordRequest")
+    @Label("Word Request")
+    @Description("Retrieving a single word such as a hash from a remote file")
+    static class WordRequestEvent extends BaseEvent {
+    }
+
+    @Name("net.zeroinstall.pom2feed.CacheLoad")
+    @Label("Feed Cache Load")
+    @Description("Loading or refreshing a feed in the feed cache; bytes is the size of the feed")
+    static class CacheLoadEvent extends BaseEvent {
+    }
+
+    @Name("net.zeroinstall.pom2feed.Signing")
+    @Label("Feed Signing")
+    @Description("Signing a feed; bytes is the size of the signed data")
+    static class SigningEvent extends BaseEvent {
+    }
+}
@@ -0,0 +1,329 @@
+package net.zeroinstall.pom2feed.core;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import java.io.*;
+import java.net.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Performs requests to upstream servers with connect and read timeouts and
+ * records latency statistics.
+ *
+ * Connections are pooled by the JDK's keep-alive cache (sized via the
+ * <code>http.maxConnections</code> system property). A connection is only
+ * returned to the pool once its response has been read completely, so all
+ * streams returned by this class drain the remaining response when closed.
+ */
+public class HttpTransport {
+
+    private static volatile HttpTransport defaultTransport = new HttpTransport(10, 30, TimeUnit.SECONDS);
+    /**
+     * Additionally records the requests made by each thread; see
+     * {@link #attachUsage(Usage)}.
+     */
+    private final static ThreadLocal<Usage> currentUsage = new ThreadLocal<Usage>();
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * Creates a transport.
+     *
+     * @param connectTimeout The maximum time to wait for a connection to be
+     * established.
+     * @param readTimeout The maximum time to wait for data on an established
+     * connection.
+     * @param unit The unit of <code>connectTimeout</code> and
+     * <code>readTimeout</code>.
+     */
+    public HttpTransport(long connectTimeout, long readTimeout, TimeUnit unit) {
+        checkArgument(connectTimeout > 0, "invalid connect timeout: %s", connectTimeout);
+        checkArgument(readTimeout > 0, "invalid read timeout: %s", readTimeout);
+        this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(connectTimeout));
+        this.readTimeout = (int) Math.min(Integer.MAX_VALUE, unit.toMillis(readTimeout));
+    }
+
+    /**
+     * Returns the transport used for all upstream requests made by this
+     * library.
+     *
+     * @return The transport; never <code>null</code>.
+     */
+    public static HttpTransport getDefault() {
+        return defaultTransport;
+    }
+
+    /**
+     * Replaces the transport used for all upstream requests made by this
+     * library.
+     *
+     * @param transport The transport to use from now on.
+     */
+    public static void setDefault(HttpTransport transport) {
+        defaultTransport = checkNotNull(transport);
+    }
+
+    /**
+     * Records the requests made by the current thread in a {@link Usage}, in
+     * addition to the statistics of the transport. Used to attribute upstream
+     * requests to the work that caused them.
+     *
+     * @param usage The usage to record requests in; <code>null</code> to
+     * stop recording.
+     * @return The usage attached before; pass it to this method again to
+     * restore it.
+     */
+    public static Usage attachUsage(Usage usage) {
+        Usage previous = currentUsage.get();
+        if (usage == null) {
+            currentUsage.remove();
+        } else {
+            currentUsage.set(usage);
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the usage the requests of the current thread are recorded in.
+     *
+     * @return <code>null</code> if none is attached.
+     */
+    public static Usage getAttachedUsage() {
+        return currentUsage.get();
+    }
+
+    /**
+     * Sends a GET request and waits for the response headers.
+     *
+     * @param url The URL to request.
+     * @param requestHeaders Additional headers to send.
+     * @return The connection. The caller must close its input stream using
+     * {@link #close(URLConnection)} to allow the connection to be reused.
+     * @throws IOException The request failed.
+     */
+    public URLConnection get(URL url, Map<String, String> requestHeaders) throws IOException {
+        URLConnection connection = open(url);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        execute(connection);
+        return connection;
+    }
+
+    /**
+     * Downloads a file.
+     *
+     * @param url The URL of the file.
+     * @return A stream of the response body. Must be closed by the caller.
+     * @throws FileNotFoundException The server responded with 404 or 410.
+     * @throws IOException The request failed.
+     */
+    public InputStream openStream(URL url) throws IOException {
+        URLConnection connection = get(url, Collections.<String, String>emptyMap());
+        InputStream stream;
+        try {
+            stream = connection.getInputStream();
+        } catch (IOException ex) {
+            close(connection);
+            throw ex;
+        }
+        return new FilterInputStream(stream) {
+            @Override
+            public void close() {
+                drain(in);
+            }
+        };
+    }
+
+    /**
+     * Determines the size of a remote file using a HEAD request.
+     *
+     * @param url The URL of the file.
+     * @return The size in bytes; <code>-1</code> if unknown.
+     * @throws IOException The request failed.
+     */
+    public long getContentLength(URL url) throws IOException {
+        URLConnection connection = open(url);
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setRequestMethod("HEAD");
+        }
+        execute(connection);
+        try {
+            return connection.getContentLength();
+        } finally {
+            close(connection);
+        }
+    }
+
+    /**
+     * Reads the remaining response of a connection so it can be reused.
+     * Failures are ignored; the connection is then simply not reused.
+     *
+     * @param connection A connection returned by
+     * {@link #get(URL, Map)}.
+     */
+    public static void close(URLConnection connection) {
+        InputStream stream;
+        try {
+            stream = connection.getInputStream();
+        } catch (IOException ex) {
+            stream = (connection instanceof HttpURLConnection)
+                    ? ((HttpURLConnection) connection).getErrorStream()
+                    : null;
+        }
+        if (stream != null) {
+            drain(stream);
+        }
+    }
+
+    private static void drain(InputStream stream) {
+        try {
+            ByteStreams.exhaust(stream);
+        } catch (IOException ex) {
+            // Stream already closed or broken
+        } finally {
+            Closeables.closeQuietly(stream);
+        }
+    }
+
+    private URLConnection open(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(connectTimeout);
+        connection.setReadTimeout(readTimeout);
+        return connection;
+    }
+
+    /**
+     * Sends a request and records its latency up to the response headers and
+     * the size of its response body as declared by the server.
+     */
+    private void execute(URLConnection connection) throws IOException {
+        long start = System.nanoTime();
+        boolean success = false;
+        long bytes = 0;
+        try {
+            if (connection instanceof HttpURLConnection) {
+                HttpURLConnection httpConnection = (HttpURLConnection) connection;
+                success = httpConnection.getResponseCode() < 500;
+                if (!httpConnection.getRequestMethod().equals("HEAD")) {
+                    bytes = Math.max(0, connection.getContentLength());
+                }
+            } else {
+                connection.connect();
+                success = true;
+            }
+        } finally {
+            record(System.nanoTime() - start, success, bytes);
+        }
+    }
+
+    private void record(long latency, boolean success, long bytes) {
+        requestCount.incrementAndGet();
+        if (!success) {
+            failureCount.incrementAndGet();
+        }
+        bytesReceived.addAndGet(bytes);
+        Usage usage = currentUsage.get();
+        if (usage != null) {
+            usage.record(bytes);
+        }
+        totalLatency.addAndGet(latency);
+        long max;
+        do {
+            max = maxLatency.get();
+        } while (latency > max && !maxLatency.compareAndSet(max, latency));
+    }
+
+    /**
+     * Returns the number of requests sent so far.
+     *
+     * @return The number of requests.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests that failed with an I/O error or a
+     * server error so far.
+     *
+     * @return The number of failed requests.
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the total size of response bodies received so far, as declared
+     * by the servers. Responses without a declared size are not included.
+     *
+     * @return The size in bytes.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns the total time spent waiting for responses so far.
+     *
+     * @param unit The unit of the result.
+     * @return The time in <code>unit</code>.
+     */
+    public long getTotalLatency(TimeUnit unit) {
+        return unit.convert(totalLatency.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the longest time spent waiting for a single response so far.
+     *
+     * @param unit The unit of the result.
+     * @return The time in <code>unit</code>.
+     */
+    public long getMaxLatency(TimeUnit unit) {
+        return unit.convert(maxLatency.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The requests made on behalf of a specific piece of work, possibly by
+     * several threads.
+     */
+    public static class Usage {
+
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+
+        private void record(long bytes) {
+            requestCount.incrementAndGet();
+            bytesReceived.addAndGet(bytes);
+        }
+
+        /**
+         * Returns the number of requests sent so far.
+         *
+         * @return The number of requests.
+         */
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+
+        /**
+         * Returns the total size of response bodies received so far, as
+         * declared by the servers.
+         *
+         * @return The size in bytes.
+         */
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+    }
+}
@@ -5,7 +5,7 @@ import static com.google.common.base.Strings.isNullOrEmpty;
 import static com.google.common.base.Throwables.propagate;
 import com.google.common.collect.ImmutableList;
 import java.io.*;
-import java.net.URL;
+import java.net.*;
 import static java.net.URLEncoder.encode;
 import java.util.*;
 import javax.xml.parsers.*;
@@ -36,6 +36,8 @@ public class MavenMetadata {
     private final String artifactId;
     private final String latestVersion;
     private final List<String> versions;
+    private final String eTag;
+    private final String lastModified;
 
     /**
      * Creates a new versioning metadata instance.
@@ -46,10 +48,27 @@ public class MavenMetadata {
      * @param versions A list of all versions of the artifact.
      */
     public MavenMetadata(String groupId, String artifactId, String latestVersion, Iterable<String> versions) {
+        this(groupId, artifactId, latestVersion, versions, null, null);
+    }
+
+    /**
+     * Creates a new versioning metadata instance along with the validators
+     * the server sent for it.
+     *
+     * @param groupId The group ID.
+     * @param artifactId The artifact ID.
+     * @param latestVersion The latest version of the artifact.
+     * @param versions A list of all versions of the artifact.
+     * @param eTag The entity tag; may be <code>null</code>.
+     * @param lastModified The modification date; may be <code>null</code>.
+     */
+    public MavenMetadata(String groupId, String artifactId, String latestVersion, Iterable<String> versions, String eTag, String lastModified) {
         this.groupId = groupId;
         this.artifactId = artifactId;
         this.latestVersion = latestVersion;
-        this.versions = new ImmutableList.Builder<String>().addAll(versions).build();
+        this.versions = ImmutableList.copyOf(versions);
+        this.eTag = eTag;
+        this.lastModified = lastModified;
     }
 
     /**
@@ -59,7 +78,41 @@ public class MavenMetadata {
      * @throws SAXException Parsing of the source file failed.
      */
     public static MavenMetadata load(URL url) throws IOException, SAXException, XPathExpressionException {
-        return parse(url.openStream());
+        return load(url, null);
+    }
+
+    /**
+     * Loads versioning metadata from a remote XML file unless it has not
+     * changed since it was previously loaded.
+     *
+     * @param url The URL of the <code>maven-metadata.xml</code> file.
+     * @param previous Metadata previously loaded from the same URL; may be
+     * <code>null</code>.
+     * @return <code>previous</code> if the server reports that the file has
+     * not been modified.
+     * @throws IOException Download of the source file failed.
+     * @throws SAXException Parsing of the source file failed.
+     * @throws XPathExpressionException The source file is malformed.
+     */
+    public static MavenMetadata load(URL url, MavenMetadata previous) throws IOException, SAXException, XPathExpressionException {
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.METADATA_REQUEST).url(url);
+        try {
+            URLConnection connection = openConditional(url, previous);
+            try {
+                event.bytes(Math.max(0, connection.getContentLength()));
+                if (isNotModified(connection)) {
+                    event.outcome("not-modified");
+                    return previous;
+                }
+                MavenMetadata metadata = parse(connection.getInputStream()).withValidators(connection);
+                event.succeeded();
+                return metadata;
+            } finally {
+                HttpTransport.close(connection);
+            }
+        } finally {
+            event.commit();
+        }
     }
 
     /**
@@ -89,6 +142,26 @@ public class MavenMetadata {
      * @throws SAXException Parsing of the query data failed.
      */
     public static MavenMetadata query(URL queryService, String artifactPath) throws IOException, SAXException, XPathExpressionException {
+        return query(queryService, artifactPath, null);
+    }
+
+    /**
+     * Retrieves versioning metadata from a search query unless the result
+     * has not changed since it was previously retrieved.
+     *
+     * @param queryService The base URL of the search service.
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @param previous Metadata previously retrieved for the same artifact;
+     * may be <code>null</code>.
+     * @return <code>previous</code> if the server reports that the result has
+     * not been modified.
+     * @throws FileNotFoundException The artifact is unknown.
+     * @throws IOException Download of the query data failed.
+     * @throws SAXException Parsing of the query data failed.
+     * @throws XPathExpressionException The query data is malformed.
+     */
+    public static MavenMetadata query(URL queryService, String artifactPath, MavenMetadata previous) throws IOException, SAXException, XPathExpressionException {
         String[] parts = artifactPath.split("/");
         String groupId = Joiner.on(".").join(Arrays.copyOfRange(parts, 0, parts.length - 1));
         String artifactId = parts[parts.length - 1];
@@ -97,16 +170,67 @@ public class MavenMetadata {
                 + "g:%22" + encode(groupId, "UTF-8") + "%22+AND+"
                 + "a:%22" + encode(artifactId, "UTF-8") + "%22"
                 + "&core=gav&wt=xml");
-        InputStream stream = url.openStream();
-        Document doc = getDocumentBuilder().parse(stream);
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.METADATA_REQUEST).artifact(artifactPath).url(url);
+        try {
+            URLConnection connection = openConditional(url, previous);
+            Document doc;
+            try {
+                event.bytes(Math.max(0, connection.getContentLength()));
+                if (isNotModified(connection)) {
+                    event.outcome("not-modified");
+                    return previous;
+                }
+                doc = getDocumentBuilder().parse(connection.getInputStream());
+            } finally {
+                HttpTransport.close(connection);
+            }
 
-        List<String> versions = getValueSet(doc, versionsQueryPath);
-        if (versions.isEmpty()) {
-            throw new IOException("Unknown artifact ID");
+            List<String> versions = getValueSet(doc, versionsQueryPath);
+            if (versions.isEmpty()) {
+                event.outcome("not-found");
+                throw new FileNotFoundException("Unknown artifact ID");
+            }
+            String latestVersion = versions.get(0);
+
+            event.succeeded();
+            return new MavenMetadata(groupId, artifactId, latestVersion, versions).withValidators(connection);
+        } finally {
+            event.commit();
         }
-        String latestVersion = versions.get(0);
+    }
 
-        return new MavenMetadata(groupId, artifactId, latestVersion, versions);
+    /**
+     * Opens a connection that asks the server to only send data if it changed
+     * since <code>previous</code> was retrieved.
+     */
+    private static URLConnection openConditional(URL url, MavenMetadata previous) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (previous != null) {
+            if (previous.eTag != null) {
+                headers.put("If-None-Match", previous.eTag);
+            }
+            if (previous.lastModified != null) {
+                headers.put("If-Modified-Since", previous.lastModified);
+            }
+        }
+        return HttpTransport.getDefault().get(url, headers);
+    }
+
+    private static boolean isNotModified(URLConnection connection) throws IOException {
+        return connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * Returns a copy of the metadata with the validators sent by the server
+     * along with it.
+     *
+     * @param connection The connection the metadata was received from.
+     * @return The copy.
+     */
+    private MavenMetadata withValidators(URLConnection connection) {
+        return new MavenMetadata(groupId, artifactId, latestVersion, versions,
+                connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
     }
 
     private static String getValue(Document doc, XPathExpression expression) throws XPathExpressionException, DOMException {
@@ -159,4 +283,22 @@ public class MavenMetadata {
     public List<String> getVersions() {
         return versions;
     }
+
+    /**
+     * Returns the entity tag the server sent along with the metadata.
+     *
+     * @return <code>null</code> if none.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Returns the modification date the server sent along with the metadata.
+     *
+     * @return The date in HTTP format; <code>null</code> if none.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
 }
@@ -0,0 +1,164 @@
+package net.zeroinstall.pom2feed.core;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.*;
+import java.io.*;
+import java.net.URL;
+import java.util.Collections;
+import net.zeroinstall.model.*;
+import static net.zeroinstall.publish.FeedUtils.getFeedString;
+import org.apache.maven.model.Model;
+import org.apache.xmlbeans.XmlOptions;
+
+/**
+ * Builds Zero Install feeds like {@link FeedBuilder} but writes each part to
+ * a stream as soon as it is added instead of building the document for the
+ * whole feed first. The output is byte-identical to serializing the equivalent
+ * {@link FeedBuilder} document with
+ * {@link net.zeroinstall.publish.FeedUtils#getFeedString} without a
+ * signature.
+ *
+ * Parts must be written in order: {@link #writeHeader(Model, String)} once,
+ * any number of implementations, then {@link #finish()}.
+ */
+public class StreamingFeedBuilder {
+
+    /**
+     * The closing tag of the root element of feeds.
+     */
+    private final static String END_TAG = "</interface>";
+    /**
+     * Serializes implementations exactly like they appear within a
+     * pretty-printed feed.
+     */
+    private final static XmlOptions FRAGMENT_OPTIONS = new XmlOptions()
+            .setSaveOuter()
+            .setSaveNoXmlDecl()
+            .setUseDefaultNamespace()
+            .setSaveImplicitNamespaces(Collections.singletonMap("", InterfaceDocument.type.getDocumentElementName().getNamespaceURI()))
+            .setSavePrettyPrint()
+            .setSavePrettyPrintOffset(2)
+            .setCharacterEncoding("UTF-8");
+    private final URL mavenRepository;
+    private final URL pom2feedService;
+    private final OutputStream stream;
+    private boolean laxDependencyVersions;
+    private boolean headerWritten;
+    private boolean finished;
+
+    /**
+     * Creates a streaming feed builder.
+     *
+     * @param mavenRepository The base URL of the Maven repository used to
+     * provide binaries.
+     * @param pom2feedService The base URL of the pom2feed service used to
+     * provide dependencies.
+     * @param stream The stream to write the feed to. Flushed after each part
+     * but not closed.
+     */
+    public StreamingFeedBuilder(URL mavenRepository, URL pom2feedService, OutputStream stream) {
+        this.mavenRepository = checkNotNull(mavenRepository);
+        this.pom2feedService = checkNotNull(pom2feedService);
+        this.stream = checkNotNull(stream);
+    }
+
+    /**
+     * Enables use of lax versioning (allowing newer versions to substitute
+     * older versions without explicit ranges) for dependencies.
+     *
+     * @return The {@link StreamingFeedBuilder} instance for calling further
+     * methods in a fluent fashion.
+     */
+    public StreamingFeedBuilder enableLaxDependencyVersions() {
+        laxDependencyVersions = true;
+        return this;
+    }
+
+    /**
+     * Writes the XML declaration, the stylesheet and the project-wide
+     * metadata.
+     *
+     * @param model The Maven model to extract the metadata from. Should be from
+     * the latest version of the project.
+     * @param uri The URI of the feed; may be <code>null</code>.
+     * @return The {@link StreamingFeedBuilder} instance for calling further
+     * methods in a fluent fashion.
+     * @throws IOException Writing to the stream failed.
+     */
+    public StreamingFeedBuilder writeHeader(Model model, String uri) throws IOException {
+        checkState(!headerWritten, "header already written");
+        FeedBuilder builder = new FeedBuilder(mavenRepository, pom2feedService).addMetadata(model);
+        if (uri != null) {
+            builder.getDocument().getInterface().setUri(uri);
+        }
+
+        // Serialize the metadata like a complete feed and hold back the closing tag
+        String feed = getFeedString(builder.getDocument(), null);
+        write(feed.substring(0, feed.lastIndexOf(END_TAG)));
+        headerWritten = true;
+        return this;
+    }
+
+    /**
+     * Writes a "download single file" implementation using version and
+     * dependency information from a Maven model and file information that
+     * was already retrieved from the Maven repository.
+     *
+     * @param model The Maven model to extract the version and dependency
+     * information from.
+     * @param size The size of the artifact file in bytes.
+     * @param hash The hex-encoded sha1 hash of the artifact file.
+     * @return The {@link StreamingFeedBuilder} instance for calling further
+     * methods in a fluent fashion.
+     * @throws IOException Writing to the stream failed.
+     */
+    public StreamingFeedBuilder addRemoteImplementation(Model model, long size, String hash) throws IOException {
+        FeedBuilder builder = new FeedBuilder(mavenRepository, pom2feedService);
+        if (laxDependencyVersions) {
+            builder.enableLaxDependencyVersions();
+        }
+        return write(builder.addRemoteImplementation(model, size, hash));
+    }
+
+    /**
+     * Writes a copy of an existing implementation (e.g. from a previous
+     * version of the feed).
+     *
+     * @param implementation The implementation to write.
+     * @return The {@link StreamingFeedBuilder} instance for calling further
+     * methods in a fluent fashion.
+     * @throws IOException Writing to the stream failed.
+     */
+    public StreamingFeedBuilder addImplementation(Implementation implementation) throws IOException {
+        return write(new FeedBuilder(mavenRepository, pom2feedService).addImplementation(implementation));
+    }
+
+    /**
+     * Writes the only implementation of a scratch feed. Copying
+     * implementations into a feed first ensures they are serialized exactly
+     * like {@link FeedBuilder#addImplementation(Implementation)} would.
+     */
+    private StreamingFeedBuilder write(FeedBuilder scratch) throws IOException {
+        checkState(headerWritten && !finished, "implementations must be added between header and end");
+
+        scratch.getDocument().getInterface().getImplementationArray(0).save(stream, FRAGMENT_OPTIONS);
+        write("\n");
+        return this;
+    }
+
+    /**
+     * Writes the closing tag of the feed.
+     *
+     * @throws IOException Writing to the stream failed.
+     */
+    public void finish() throws IOException {
+        checkState(headerWritten && !finished, "header not written or already finished");
+        write(END_TAG);
+        finished = true;
+    }
+
+    private void write(String text) throws IOException {
+        stream.write(text.getBytes(UTF_8));
+        stream.flush();
+    }
+}
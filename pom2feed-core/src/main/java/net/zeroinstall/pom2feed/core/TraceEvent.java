@@ -0,0 +1,168 @@
+package net.zeroinstall.pom2feed.core;
+
+import java.net.URL;
+
+/**
+ * Measures an operation of feed generation and reports it as a Java Flight
+ * Recorder event. Does nothing unless the Java runtime provides JFR and a
+ * recording that includes the event is running, so events can be emitted on
+ * every call.
+ *
+ * Typical usage:
+ * <pre>
+ * TraceEvent event = TraceEvent.begin(Kind.MODEL_BUILD).artifact(path);
+ * try {
+ *     ...
+ *     event.succeeded();
+ * } finally {
+ *     event.commit();
+ * }
+ * </pre>
+ */
+public class TraceEvent {
+
+    /**
+     * The operations reported as events.
+     */
+    public enum Kind {
+
+        /**
+         * Generating a complete feed.
+         */
+        FEED_GENERATION,
+        /**
+         * Building the effective Maven model of a version.
+         */
+        MODEL_BUILD,
+        /**
+         * Retrieving the versioning metadata of an artifact.
+         */
+        METADATA_REQUEST,
+        /**
+         * Determining the size of a remote file.
+         */
+        FILE_SIZE_REQUEST,
+        /**
+         * Retrieving a single word such as a hash from a remote file.
+         */
+        WORD_REQUEST,
+        /**
+         * Loading a feed into the feed cache.
+         */
+        CACHE_LOAD,
+        /**
+         * Signing a feed.
+         */
+        SIGNING
+    }
+    /**
+     * Indicates whether the Java runtime provides JFR.
+     */
+    private final static boolean AVAILABLE = isFlightRecorderAvailable();
+    private final static TraceEvent DISABLED = new TraceEvent();
+
+    TraceEvent() {
+    }
+
+    /**
+     * Starts measuring an operation.
+     *
+     * @param kind The kind of operation.
+     * @return An event that must be {@link #commit() committed} when the
+     * operation has ended.
+     */
+    public static TraceEvent begin(Kind kind) {
+        if (!AVAILABLE) {
+            return DISABLED;
+        }
+        TraceEvent event = FlightRecorderEvents.begin(kind);
+        return (event == null) ? DISABLED : event;
+    }
+
+    /**
+     * Sets the path of the artifact the operation is performed for (artifact
+     * group and id combined).
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server.
+     * @return The {@link TraceEvent} instance for calling further methods in
+     * a fluent fashion.
+     */
+    public TraceEvent artifact(String artifactPath) {
+        return this;
+    }
+
+    /**
+     * Sets the version of the artifact the operation is performed for.
+     *
+     * @param version The version.
+     * @return The {@link TraceEvent} instance for calling further methods in
+     * a fluent fashion.
+     */
+    public TraceEvent version(String version) {
+        return this;
+    }
+
+    /**
+     * Sets the upstream URL accessed by the operation.
+     *
+     * @param url The URL.
+     * @return The {@link TraceEvent} instance for calling further methods in
+     * a fluent fashion.
+     */
+    public TraceEvent url(URL url) {
+        return this;
+    }
+
+    /**
+     * Sets the amount of data produced or received by the operation.
+     *
+     * @param bytes The amount of data in bytes.
+     * @return The {@link TraceEvent} instance for calling further methods in
+     * a fluent fashion.
+     */
+    public TraceEvent bytes(long bytes) {
+        return this;
+    }
+
+    /**
+     * Sets the outcome of the operation, e.g. <code>not-modified</code>.
+     * Events are committed with the outcome <code>failure</code> if none is
+     * set.
+     *
+     * @param outcome A short, lower-case description of the outcome.
+     * @return The {@link TraceEvent} instance for calling further methods in
+     * a fluent fashion.
+     */
+    public TraceEvent outcome(String outcome) {
+        return this;
+    }
+
+    /**
+     * Sets the outcome to <code>success</code> unless another outcome was set
+     * already.
+     */
+    public void succeeded() {
+    }
+
+    /**
+     * Ends the measurement and reports the event if it is recorded.
+     */
+    public void commit() {
+    }
+
+    /**
+     * Determines whether the Java runtime provides JFR (Java 11 or newer, or
+     * Java 8 update 262 or newer). Uses reflection since this code is
+     * compiled for older Java versions.
+     */
+    static boolean isFlightRecorderAvailable() {
+        try {
+            return (Boolean) Class.forName("jdk.jfr.FlightRecorder").getMethod("isAvailable").invoke(null);
+        } catch (Exception ex) {
+            return false;
+        } catch (LinkageError ex) {
+            return false;
+        }
+    }
+}
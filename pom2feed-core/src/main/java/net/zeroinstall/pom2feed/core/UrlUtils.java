@@ -2,6 +2,7 @@ package net.zeroinstall.pom2feed.core;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Throwables.propagate;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.*;
 import java.util.Scanner;
@@ -24,17 +25,32 @@ public final class UrlUtils {
     }
 
     public static long getRemoteFileSize(URL url) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("HEAD");
-        return connection.getContentLength();
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.FILE_SIZE_REQUEST).url(url);
+        try {
+            long size = HttpTransport.getDefault().getContentLength(url);
+            event.bytes(size).succeeded();
+            return size;
+        } finally {
+            event.commit();
+        }
     }
 
     public static String getRemoteWord(URL url) throws IOException {
-        Scanner scanner = new Scanner(url.openStream());
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.WORD_REQUEST).url(url);
         try {
-            return scanner.next();
+            Scanner scanner = new Scanner(HttpTransport.getDefault().openStream(url));
+            try {
+                String word = scanner.next();
+                event.bytes(word.length()).succeeded();
+                return word;
+            } finally {
+                scanner.close();
+            }
+        } catch (FileNotFoundException ex) {
+            event.outcome("not-found");
+            throw ex;
         } finally {
-            scanner.close();
+            event.commit();
         }
     }
 }
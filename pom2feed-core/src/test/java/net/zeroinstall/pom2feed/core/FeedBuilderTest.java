@@ -172,6 +172,37 @@ public class FeedBuilderTest {
         assertEquals(0, impl.getCommandArray().length); // No command for non-JAR
     }
 
+    @Test
+    public void testAddRemoteImplementationKnownFile() {
+        Model model = new Model();
+        model.setGroupId("group");
+        model.setArtifactId("artifact");
+        model.setPackaging("jar");
+        model.setVersion("1.0");
+
+        Implementation impl = builder.addRemoteImplementation(model, 1024, "123abc").
+                getDocument().getInterface().getImplementationArray(0);
+
+        String expectedDigest = getSha1ManifestDigest("123abc", 1024, "artifact-1.0.jar");
+        assertEquals("1.0", impl.getId());
+        assertEquals(expectedDigest, impl.getManifestDigestArray(0).getSha1New());
+        assertEquals("http://localhost:8089/group/artifact/1.0/artifact-1.0.jar", impl.getFileArray(0).getHref());
+        assertEquals(1024, impl.getFileArray(0).getSize());
+    }
+
+    @Test
+    public void testAddImplementation() {
+        Implementation existing = Implementation.Factory.newInstance();
+        existing.setId("1.0");
+        existing.setVersion("1.0");
+
+        Implementation impl = builder.addImplementation(existing).
+                getDocument().getInterface().getImplementationArray(0);
+
+        assertEquals("1.0", impl.getId());
+        assertEquals("1.0", impl.getVersion());
+    }
+
     @Test
     public void testAddRemoteImplementationMissing() {
         Model model = new Model();
@@ -0,0 +1,114 @@
+package net.zeroinstall.pom2feed.core;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import com.github.tomakehurst.wiremock.junit.WireMockClassRule;
+import static com.google.common.base.Charsets.UTF_8;
+import com.google.common.io.ByteStreams;
+import java.io.*;
+import java.net.*;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class HttpTransportTest {
+
+    /**
+     * Kept running for all tests, since connections kept alive by one test
+     * would otherwise be reused for another test after the server restarted.
+     */
+    @ClassRule
+    public static WireMockClassRule wireMockRule = new WireMockClassRule(8089);
+    @Rule
+    public WireMockClassRule instanceRule = wireMockRule;
+    private HttpTransport transport;
+
+    @Before
+    public void before() {
+        this.transport = new HttpTransport(1, 1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testOpenStream() throws Exception {
+        stubFor(get(urlEqualTo("/file")).willReturn(aResponse().withStatus(200).withBody("content")));
+
+        InputStream stream = transport.openStream(new URL("http://localhost:8089/file"));
+        try {
+            assertEquals("content", new String(ByteStreams.toByteArray(stream), UTF_8));
+        } finally {
+            stream.close();
+        }
+
+        assertEquals(1, transport.getRequestCount());
+        assertEquals(0, transport.getFailureCount());
+        assertTrue(transport.getMaxLatency(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void testUsage() throws Exception {
+        stubFor(get(urlEqualTo("/file")).willReturn(aResponse().withStatus(200).withHeader("Content-Length", "7").withBody("content")));
+        stubFor(head(urlEqualTo("/file")).willReturn(aResponse().withStatus(200).withHeader("Content-Length", "1024")));
+
+        HttpTransport.Usage usage = new HttpTransport.Usage();
+        HttpTransport.Usage previous = HttpTransport.attachUsage(usage);
+        try {
+            transport.openStream(new URL("http://localhost:8089/file")).close();
+            assertEquals(1024, transport.getContentLength(new URL("http://localhost:8089/file")));
+        } finally {
+            HttpTransport.attachUsage(previous);
+        }
+        transport.openStream(new URL("http://localhost:8089/file")).close();
+
+        assertEquals(2, usage.getRequestCount());
+        assertEquals(7, usage.getBytesReceived());
+        assertEquals(3, transport.getRequestCount());
+        assertEquals(14, transport.getBytesReceived());
+        assertNull(HttpTransport.getAttachedUsage());
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testOpenStreamNotFound() throws Exception {
+        stubFor(get(urlEqualTo("/file")).willReturn(aResponse().withStatus(404).withBody("error")));
+
+        transport.openStream(new URL("http://localhost:8089/file"));
+    }
+
+    @Test
+    public void testServerError() throws Exception {
+        stubFor(get(urlEqualTo("/file")).willReturn(aResponse().withStatus(500)));
+
+        try {
+            transport.openStream(new URL("http://localhost:8089/file"));
+            fail("Expected IOException");
+        } catch (IOException ex) {
+        }
+        assertEquals(1, transport.getFailureCount());
+    }
+
+    @Test
+    public void testGetContentLength() throws Exception {
+        stubFor(head(urlEqualTo("/file")).willReturn(aResponse().withStatus(200).withHeader("Content-Length", "1024")));
+
+        assertEquals(1024, transport.getContentLength(new URL("http://localhost:8089/file")));
+        verify(headRequestedFor(urlEqualTo("/file")));
+    }
+
+    @Test
+    public void testGetWithHeaders() throws Exception {
+        stubFor(get(urlEqualTo("/file")).withHeader("If-None-Match", equalTo("\"abc\"")).willReturn(aResponse().withStatus(304)));
+
+        URLConnection connection = transport.get(new URL("http://localhost:8089/file"), Collections.singletonMap("If-None-Match", "\"abc\""));
+        try {
+            assertEquals(304, ((HttpURLConnection) connection).getResponseCode());
+        } finally {
+            HttpTransport.close(connection);
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void testReadTimeout() throws Exception {
+        stubFor(get(urlEqualTo("/file")).willReturn(aResponse().withStatus(200).withFixedDelay(3000).withBody("content")));
+
+        transport.openStream(new URL("http://localhost:8089/file"));
+    }
+}
@@ -41,6 +41,23 @@ public class MavenMetadataTest {
         assertEquals(newArrayList("1.0", "1.1", "1.2"), metadata.getVersions());
     }
 
+    @Test
+    public void testLoadConditional() throws Exception {
+        stubFor(get(urlEqualTo("/maven-metadata.xml")).willReturn(aResponse().withStatus(200).
+                withHeader("ETag", "\"abc\"").withHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT").
+                withBody("<metadata>\n<groupId>group</groupId>\n<artifactId>artifact</artifactId>\n<versioning>\n<versions>\n<version>1.0</version>\n</versions>\n</versioning>\n</metadata>")));
+        stubFor(get(urlEqualTo("/maven-metadata.xml")).withHeader("If-None-Match", equalTo("\"abc\"")).
+                withHeader("If-Modified-Since", equalTo("Wed, 21 Oct 2015 07:28:00 GMT")).
+                willReturn(aResponse().withStatus(304)));
+
+        MavenMetadata previous = MavenMetadata.load(new URL("http://localhost:8089/maven-metadata.xml"));
+        assertEquals("\"abc\"", previous.getETag());
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT", previous.getLastModified());
+
+        assertSame(previous, MavenMetadata.load(new URL("http://localhost:8089/maven-metadata.xml"), previous));
+        verify(2, getRequestedFor(urlEqualTo("/maven-metadata.xml")));
+    }
+
     @Test
     public void testQuery() throws Exception {
         stubFor(get(urlEqualTo("/select?q=g:%22group.subgroup%22+AND+a:%22artifact.subartifact%22&core=gav&wt=xml")).willReturn(aResponse().withStatus(200).
@@ -0,0 +1,134 @@
+package net.zeroinstall.pom2feed.core;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.util.*;
+import net.zeroinstall.model.*;
+import static net.zeroinstall.publish.FeedUtils.getFeedString;
+import org.apache.maven.model.*;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Verifies that {@link StreamingFeedBuilder} produces exactly the same bytes
+ * as {@link FeedBuilder} for a variety of projects.
+ */
+public class StreamingFeedBuilderTest {
+
+    private URL mavenRepository;
+    private URL pom2feedService;
+
+    @Before
+    public void before() throws Exception {
+        this.mavenRepository = new URL("http://localhost:8089/");
+        this.pom2feedService = new URL("http://maven.0install.net/");
+    }
+
+    @Test
+    public void testMetadataOnly() throws Exception {
+        assertIdentical(newModel("1.0", "jar"), Collections.<Model>emptyList(), Collections.<Implementation>emptyList());
+    }
+
+    @Test
+    public void testSpecialCharacters() throws Exception {
+        Model latest = newModel("2.0", "jar");
+        latest.setName("Tom & Jerry <\"Zürich\">");
+        latest.setDescription("Line 1\n  Line 2 with 'quotes' & ]]> and tabs\t.");
+        latest.setUrl("http://example.com/?a=1&b=2");
+        License license = new License();
+        license.setName("Apache License – Version 2.0");
+        latest.addLicense(license);
+
+        assertIdentical(latest, Arrays.asList(newModel("1.0", "jar"), latest), Collections.<Implementation>emptyList());
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        Model model = newModel("1.0-beta-2", "jar");
+        model.addDependency(newDependency("other", "[1.0,2.0)", null, null));
+        model.addDependency(newDependency("lax", "1.5", null, "true"));
+        model.addDependency(newDependency("runtime", "2.0", "runtime", null));
+        model.addDependency(newDependency("test", "3.0", "test", null));
+        Plugin compiler = new Plugin();
+        compiler.setGroupId("org.apache.maven.plugins");
+        compiler.setArtifactId("maven-compiler-plugin");
+        Xpp3Dom config = new Xpp3Dom("configuration");
+        Xpp3Dom target = new Xpp3Dom("target");
+        target.setValue("1.6");
+        config.addChild(target);
+        compiler.setConfiguration(config);
+        Build build = new Build();
+        build.addPlugin(compiler);
+        model.setBuild(build);
+
+        assertIdentical(model, Arrays.asList(model, newModel("1.1", "war"), newModel("1.2", "pom")), Collections.<Implementation>emptyList());
+    }
+
+    @Test
+    public void testExistingImplementations() throws Exception {
+        // Implementations parsed from a previous feed may carry namespace prefixes
+        InterfaceDocument previous = InterfaceDocument.Factory.parse(
+                "<int:interface xmlns:int='http://zero-install.sourceforge.net/2004/injector/interface'>"
+                + "<int:implementation id='0.9' version='0.9'><int:requires interface='http://maven.0install.net/group/other/'/></int:implementation>"
+                + "</int:interface>");
+        Implementation existing = (Implementation) previous.getInterface().getImplementationArray(0).copy();
+
+        assertIdentical(newModel("1.0", "jar"), Arrays.asList(newModel("1.0", "jar")), Arrays.asList(existing));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testImplementationBeforeHeader() throws Exception {
+        new StreamingFeedBuilder(mavenRepository, pom2feedService, new ByteArrayOutputStream())
+                .addRemoteImplementation(newModel("1.0", "jar"), 1024, "123abc");
+    }
+
+    /**
+     * Builds the same feed with both builders and compares the results.
+     */
+    private void assertIdentical(Model latest, List<Model> remote, List<Implementation> existing) throws Exception {
+        FeedBuilder feedBuilder = new FeedBuilder(mavenRepository, pom2feedService).enableLaxDependencyVersions();
+        feedBuilder.addMetadata(latest);
+        for (Implementation implementation : existing) {
+            feedBuilder.addImplementation(implementation);
+        }
+        for (Model model : remote) {
+            feedBuilder.addRemoteImplementation(model, 1024, "123abc");
+        }
+        feedBuilder.getDocument().getInterface().setUri("http://maven.0install.net/group/artifact/");
+        String expected = getFeedString(feedBuilder.getDocument(), null);
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        StreamingFeedBuilder streamingBuilder = new StreamingFeedBuilder(mavenRepository, pom2feedService, stream)
+                .enableLaxDependencyVersions()
+                .writeHeader(latest, "http://maven.0install.net/group/artifact/");
+        for (Implementation implementation : existing) {
+            streamingBuilder.addImplementation(implementation);
+        }
+        for (Model model : remote) {
+            streamingBuilder.addRemoteImplementation(model, 1024, "123abc");
+        }
+        streamingBuilder.finish();
+
+        assertEquals(expected, stream.toString("UTF-8"));
+    }
+
+    private static Model newModel(String version, String packaging) {
+        Model model = new Model();
+        model.setGroupId("group");
+        model.setArtifactId("artifact");
+        model.setVersion(version);
+        model.setPackaging(packaging);
+        return model;
+    }
+
+    private static org.apache.maven.model.Dependency newDependency(String artifactId, String version, String scope, String optional) {
+        org.apache.maven.model.Dependency dependency = new org.apache.maven.model.Dependency();
+        dependency.setGroupId("group");
+        dependency.setArtifactId(artifactId);
+        dependency.setVersion(version);
+        dependency.setScope(scope);
+        dependency.setOptional(optional);
+        return dependency;
+    }
+}
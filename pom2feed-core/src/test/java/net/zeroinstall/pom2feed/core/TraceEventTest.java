@@ -0,0 +1,72 @@
+package net.zeroinstall.pom2feed.core;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class TraceEventTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(8089);
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(TraceEvent.isFlightRecorderAvailable());
+    }
+
+    @Test
+    public void testNotRecording() {
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.WORD_REQUEST);
+        assertSame(event, event.artifact("group/artifact/").bytes(1));
+        assertEquals(TraceEvent.class, event.getClass());
+        event.commit();
+    }
+
+    @Test
+    public void testRecording() throws IOException {
+        stubFor(get(urlEqualTo("/test")).
+                willReturn(aResponse().withStatus(200).withBody("abc\n123")));
+        stubFor(get(urlEqualTo("/missing")).
+                willReturn(aResponse().withStatus(404)));
+
+        File file = File.createTempFile("pom2feed", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("net.zeroinstall.pom2feed.WordRequest");
+                recording.start();
+                assertEquals("abc", UrlUtils.getRemoteWord(new URL("http://localhost:8089/test")));
+                try {
+                    UrlUtils.getRemoteWord(new URL("http://localhost:8089/missing"));
+                    fail("Expected FileNotFoundException");
+                } catch (IOException ex) {
+                }
+                recording.stop();
+                recording.dump(file.toPath());
+            } finally {
+                recording.close();
+            }
+
+            List<String> outcomes = new ArrayList<String>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                assertEquals("net.zeroinstall.pom2feed.WordRequest", event.getEventType().getName());
+                outcomes.add(event.getString("outcome"));
+                assertTrue(event.getString("url").startsWith("http://localhost:8089/"));
+            }
+            assertEquals(2, outcomes.size());
+            assertTrue(outcomes.contains("success"));
+            assertTrue(outcomes.contains("not-found"));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.zeroinstall.pom2feed.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latencies to calculate exact percentiles. Not thread-safe; use one
+ * instance per thread and {@link #addAll(LatencyRecorder) combine} them
+ * afterwards.
+ */
+class LatencyRecorder {
+
+    private long[] values = new long[1024];
+    private int count;
+    private boolean sorted = true;
+
+    /**
+     * Records a single latency.
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[count++] = nanos;
+        sorted = false;
+    }
+
+    /**
+     * Records all latencies recorded by another recorder.
+     */
+    public void addAll(LatencyRecorder other) {
+        if (count + other.count > values.length) {
+            values = Arrays.copyOf(values, Math.max(values.length * 2, count + other.count));
+        }
+        System.arraycopy(other.values, 0, values, count, other.count);
+        count += other.count;
+        sorted = false;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the latency that a share of all recorded latencies does not
+     * exceed (nearest rank).
+     *
+     * @param percentile The share in percent, e.g. <code>99.9</code>.
+     * @return The latency in nanoseconds; <code>0</code> if nothing was
+     * recorded.
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(values, 0, count);
+            sorted = true;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return values[Math.min(count, Math.max(1, rank)) - 1];
+    }
+}
@@ -0,0 +1,397 @@
+package net.zeroinstall.pom2feed.loadtest;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import java.io.*;
+import java.lang.management.*;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import net.zeroinstall.pom2feed.service.FeedServlet;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+/**
+ * Runs {@link FeedServlet} in an embedded Jetty against a
+ * {@link SyntheticRepository} with injected latency and errors, requests
+ * feeds with concurrent clients and reports throughput, latency percentiles,
+ * upstream request amplification and heap usage. Everything runs in a single
+ * JVM on the loopback interface.
+ *
+ * Configured with Java system properties prefixed with
+ * <code>pom2feed-loadtest.</code>; see the README. The service itself is
+ * configured with the usual <code>pom2feed-service.</code> properties, except
+ * for the Maven repository and service URL.
+ */
+public class LoadTest {
+
+    private final static String PREFIX = "pom2feed-loadtest.";
+    private final static String REPOSITORY_PATH = "/maven2/";
+    private final static String ADMIN_PATH = "/admin/";
+
+    final int artifacts;
+    final int hugeArtifacts;
+    final int hugeVersions;
+    final int maxVersions;
+    final int parentDepth;
+    final long latency;
+    final long jitter;
+    final double errorRate;
+    final double missingRate;
+    final int clients;
+    final long duration;
+    final double skew;
+
+    /**
+     * Creates a load test.
+     *
+     * @param properties The configuration; keys without the
+     * <code>pom2feed-loadtest.</code> prefix are ignored and missing keys use
+     * their defaults.
+     */
+    public LoadTest(Properties properties) {
+        this.artifacts = Integer.parseInt(get(properties, "artifacts", "2000"));
+        this.hugeArtifacts = Integer.parseInt(get(properties, "hugeArtifacts", "5"));
+        this.hugeVersions = Integer.parseInt(get(properties, "hugeVersions", "1200"));
+        this.maxVersions = Integer.parseInt(get(properties, "maxVersions", "30"));
+        this.parentDepth = Integer.parseInt(get(properties, "parentDepth", "5"));
+        this.latency = Long.parseLong(get(properties, "latency", "20"));
+        this.jitter = Long.parseLong(get(properties, "jitter", "10"));
+        this.errorRate = Double.parseDouble(get(properties, "errorRate", "0"));
+        this.missingRate = Double.parseDouble(get(properties, "missingRate", "0.01"));
+        this.clients = Integer.parseInt(get(properties, "clients", "16"));
+        this.duration = Long.parseLong(get(properties, "duration", "60"));
+        this.skew = Double.parseDouble(get(properties, "skew", "2"));
+        checkArgument(clients > 0, "invalid number of clients: %s", clients);
+        checkArgument(duration > 0, "invalid duration: %s", duration);
+        checkArgument(missingRate >= 0 && missingRate <= 1, "invalid missing rate: %s", missingRate);
+        checkArgument(skew >= 1, "invalid skew: %s", skew);
+    }
+
+    private static String get(Properties properties, String key, String defaultValue) {
+        return properties.getProperty(PREFIX + key, defaultValue);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("org.slf4j.simpleLogger.defaultLogLevel") == null) {
+            // Injected errors would otherwise flood the output
+            System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        }
+        Result result = new LoadTest(System.getProperties()).run();
+        result.print(System.out);
+        System.exit(0);
+    }
+
+    /**
+     * Starts the simulated repository and the service, runs the clients for
+     * the configured duration and stops everything again.
+     */
+    public Result run() throws Exception {
+        SyntheticRepository repository = new SyntheticRepository(artifacts, hugeArtifacts, hugeVersions, maxVersions, parentDepth);
+        RepositoryHandler repositoryHandler = new RepositoryHandler(repository, REPOSITORY_PATH, latency, jitter, errorRate);
+        Server repositoryServer = new Server(0);
+        repositoryServer.setThreadPool(new QueuedThreadPool(1000));
+        repositoryServer.setHandler(repositoryHandler);
+        repositoryServer.start();
+        Server serviceServer = null;
+        try {
+            int repositoryPort = repositoryServer.getConnectors()[0].getLocalPort();
+            int servicePort = getFreePort();
+            String serviceURL = "http://localhost:" + servicePort + "/";
+            System.setProperty("pom2feed-service.mavenRepository", "http://localhost:" + repositoryPort + REPOSITORY_PATH);
+            System.setProperty("pom2feed-service.serviceURL", serviceURL);
+            if (System.getProperty("pom2feed-service.adminPath") == null) {
+                System.setProperty("pom2feed-service.adminPath", ADMIN_PATH);
+            }
+
+            serviceServer = new Server(servicePort);
+            ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+            context.setContextPath("/");
+            ServletHolder holder = new ServletHolder(new FeedServlet());
+            holder.setAsyncSupported(true);
+            context.addServlet(holder, "/*");
+            serviceServer.setHandler(context);
+            serviceServer.start();
+
+            return runClients(repository, repositoryHandler, serviceURL);
+        } finally {
+            if (serviceServer != null) {
+                serviceServer.stop();
+            }
+            repositoryServer.stop();
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Result runClients(SyntheticRepository repository, RepositoryHandler repositoryHandler, String serviceURL) throws Exception {
+        final HeapSampler heapSampler = new HeapSampler();
+        ScheduledExecutorService samplerExecutor = Executors.newSingleThreadScheduledExecutor();
+        samplerExecutor.scheduleAtFixedRate(heapSampler, 0, 200, TimeUnit.MILLISECONDS);
+        long gcCountBefore = getGcCount();
+        long gcTimeBefore = getGcTime();
+
+        long startTime = System.nanoTime();
+        long deadline = startTime + TimeUnit.SECONDS.toNanos(duration);
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(clients);
+        List<Future<Client>> futures = new ArrayList<Future<Client>>();
+        for (int i = 0; i < clients; i++) {
+            futures.add(clientExecutor.submit(new Client(repository, serviceURL, deadline)));
+        }
+        Result result = new Result();
+        Set<String> requestedPaths = new HashSet<String>();
+        for (Future<Client> future : futures) {
+            Client client = future.get();
+            result.latencies.addAll(client.latencies);
+            for (Map.Entry<Integer, Long> entry : client.statusCounts.entrySet()) {
+                Long count = result.statusCounts.get(entry.getKey());
+                result.statusCounts.put(entry.getKey(), (count == null ? 0 : count) + entry.getValue());
+            }
+            result.bytesReceived += client.bytesReceived;
+            requestedPaths.addAll(client.requestedPaths);
+        }
+        result.elapsedNanos = System.nanoTime() - startTime;
+        clientExecutor.shutdown();
+        samplerExecutor.shutdown();
+        samplerExecutor.awaitTermination(1, TimeUnit.SECONDS);
+
+        result.distinctFeeds = requestedPaths.size();
+        result.upstreamRequests = repositoryHandler.getRequestCount();
+        result.injectedErrors = repositoryHandler.getErrorCount();
+        result.upstreamBytes = repositoryHandler.getBytesSent();
+        result.generatedFeeds = readGeneratedFeeds(serviceURL);
+        result.peakHeap = heapSampler.peak;
+        result.gcCount = getGcCount() - gcCountBefore;
+        result.gcMillis = getGcTime() - gcTimeBefore;
+        System.gc();
+        result.retainedHeap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        return result;
+    }
+
+    /**
+     * Reads the number of feeds the service loaded into its cache from its
+     * metrics view.
+     *
+     * @return <code>-1</code> if the metrics view is not available.
+     */
+    private static long readGeneratedFeeds(String serviceURL) {
+        String adminPath = System.getProperty("pom2feed-service.adminPath");
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(serviceURL + adminPath.substring(1) + "metrics").openConnection();
+            Reader reader = new InputStreamReader(connection.getInputStream(), UTF_8);
+            try {
+                for (String line : CharStreams.readLines(reader)) {
+                    if (line.startsWith("pom2feed_cache_loads_total ")) {
+                        return Long.parseLong(line.substring(line.indexOf(' ') + 1));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException ex) {
+            // Metrics disabled or unreachable
+        } catch (NumberFormatException ex) {
+            // Unexpected format
+        }
+        return -1;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Requests feeds until a deadline, preferring low artifact numbers so
+     * some feeds are requested much more often than others.
+     */
+    private class Client implements Callable<Client> {
+
+        private final SyntheticRepository repository;
+        private final String serviceURL;
+        private final long deadline;
+        private final Random random = new Random();
+        final LatencyRecorder latencies = new LatencyRecorder();
+        final Map<Integer, Long> statusCounts = new TreeMap<Integer, Long>();
+        final Set<String> requestedPaths = new HashSet<String>();
+        long bytesReceived;
+
+        Client(SyntheticRepository repository, String serviceURL, long deadline) {
+            this.repository = repository;
+            this.serviceURL = serviceURL;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Client call() {
+            while (System.nanoTime() < deadline) {
+                String artifactPath = nextArtifactPath();
+                requestedPaths.add(artifactPath);
+                long startTime = System.nanoTime();
+                int status = request(artifactPath);
+                latencies.record(System.nanoTime() - startTime);
+                Long count = statusCounts.get(status);
+                statusCounts.put(status, (count == null ? 0 : count) + 1);
+            }
+            return this;
+        }
+
+        private String nextArtifactPath() {
+            if (missingRate > 0 && random.nextDouble() < missingRate) {
+                return repository.getArtifactPath(artifacts + random.nextInt(artifacts));
+            }
+            return repository.getArtifactPath((int) (Math.pow(random.nextDouble(), skew) * artifacts));
+        }
+
+        /**
+         * Requests a feed and reads the response completely.
+         *
+         * @return The HTTP status code; <code>-1</code> if the request failed.
+         */
+        private int request(String artifactPath) {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(serviceURL + artifactPath).openConnection();
+                connection.setConnectTimeout(10000);
+                connection.setReadTimeout((int) TimeUnit.MINUTES.toMillis(6));
+                connection.setRequestProperty("Accept-Encoding", "gzip");
+                int status = connection.getResponseCode();
+                InputStream stream = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+                if (stream != null) {
+                    try {
+                        bytesReceived += ByteStreams.copy(stream, ByteStreams.nullOutputStream());
+                    } finally {
+                        stream.close();
+                    }
+                }
+                return status;
+            } catch (IOException ex) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Tracks the highest heap usage seen.
+     */
+    private static class HeapSampler implements Runnable {
+
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        volatile long peak;
+
+        @Override
+        public void run() {
+            peak = Math.max(peak, memory.getHeapMemoryUsage().getUsed());
+        }
+    }
+
+    /**
+     * The measurements of a load test run.
+     */
+    public static class Result {
+
+        final LatencyRecorder latencies = new LatencyRecorder();
+        final Map<Integer, Long> statusCounts = new TreeMap<Integer, Long>();
+        long elapsedNanos;
+        long bytesReceived;
+        long distinctFeeds;
+        long generatedFeeds;
+        long upstreamRequests;
+        long injectedErrors;
+        long upstreamBytes;
+        long peakHeap;
+        long retainedHeap;
+        long gcCount;
+        long gcMillis;
+
+        /**
+         * Returns the number of feed requests sent by all clients.
+         */
+        public long getRequestCount() {
+            return latencies.getCount();
+        }
+
+        /**
+         * Returns the number of responses per HTTP status code;
+         * <code>-1</code> stands for requests that failed without a response.
+         */
+        public Map<Integer, Long> getStatusCounts() {
+            return Collections.unmodifiableMap(statusCounts);
+        }
+
+        /**
+         * Returns the number of requests the simulated repository received.
+         */
+        public long getUpstreamRequests() {
+            return upstreamRequests;
+        }
+
+        /**
+         * Returns the number of feeds the service generated; <code>-1</code>
+         * if unknown.
+         */
+        public long getGeneratedFeeds() {
+            return generatedFeeds;
+        }
+
+        /**
+         * Returns a latency percentile in milliseconds.
+         */
+        public double getLatencyPercentile(double percentile) {
+            return latencies.getPercentile(percentile) / 1e6;
+        }
+
+        /**
+         * Writes a human-readable report.
+         */
+        public void print(PrintStream out) {
+            double seconds = elapsedNanos / 1e9;
+            long requests = getRequestCount();
+            out.printf(Locale.ENGLISH, "Duration:          %.1f s%n", seconds);
+            out.printf(Locale.ENGLISH, "Client requests:   %d (%.1f/s), %d distinct feeds, %.1f MB received%n",
+                    requests, requests / seconds, distinctFeeds, bytesReceived / 1e6);
+            StringBuilder statuses = new StringBuilder();
+            for (Map.Entry<Integer, Long> entry : statusCounts.entrySet()) {
+                statuses.append((statuses.length() == 0) ? "" : ", ")
+                        .append((entry.getKey() < 0) ? "failed" : entry.getKey().toString())
+                        .append(": ").append(entry.getValue());
+            }
+            out.println("Responses:         " + statuses);
+            out.printf(Locale.ENGLISH, "Latency:           p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms%n",
+                    getLatencyPercentile(50), getLatencyPercentile(90), getLatencyPercentile(99),
+                    getLatencyPercentile(99.9), getLatencyPercentile(100));
+            out.printf(Locale.ENGLISH, "Upstream requests: %d (%.1f/s), %d injected errors, %.1f MB sent%n",
+                    upstreamRequests, upstreamRequests / seconds, injectedErrors, upstreamBytes / 1e6);
+            out.printf(Locale.ENGLISH, "Amplification:     %.2f upstream requests per client request", (double) upstreamRequests / Math.max(1, requests));
+            if (generatedFeeds > 0) {
+                out.printf(Locale.ENGLISH, ", %.1f per generated feed (%d feeds)", (double) upstreamRequests / generatedFeeds, generatedFeeds);
+            }
+            out.println();
+            out.printf(Locale.ENGLISH, "Heap:              %.0f MB peak, %.0f MB retained after GC, %d collections taking %.1f s%n",
+                    peakHeap / 1e6, retainedHeap / 1e6, gcCount, gcMillis / 1e3);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.zeroinstall.pom2feed.loadtest;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Serves a {@link SyntheticRepository} over HTTP like a remote Maven
+ * repository: every response is delayed and a share of the requests fails
+ * with 503. Counts the requests it receives.
+ */
+class RepositoryHandler extends AbstractHandler {
+
+    private final SyntheticRepository repository;
+    private final String prefix;
+    private final long latency;
+    private final long jitter;
+    private final double errorRate;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    /**
+     * Creates a handler.
+     *
+     * @param prefix The path prefix of the repository, e.g.
+     * <code>/maven2/</code>.
+     * @param latency The minimum time to wait before responding, in
+     * milliseconds.
+     * @param jitter The maximum additional random time to wait before
+     * responding, in milliseconds.
+     * @param errorRate The share of requests that fail, between
+     * <code>0</code> and <code>1</code>.
+     */
+    public RepositoryHandler(SyntheticRepository repository, String prefix, long latency, long jitter, double errorRate) {
+        checkArgument(latency >= 0, "invalid latency: %s", latency);
+        checkArgument(jitter >= 0, "invalid jitter: %s", jitter);
+        checkArgument(errorRate >= 0 && errorRate <= 1, "invalid error rate: %s", errorRate);
+        this.repository = repository;
+        this.prefix = prefix;
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        baseRequest.setHandled(true);
+        requestCount.incrementAndGet();
+        delay();
+
+        String path = baseRequest.getRequestURI();
+        if (!path.startsWith(prefix)) {
+            response.sendError(404);
+            return;
+        }
+        path = path.substring(prefix.length());
+
+        if (errorRate > 0 && random.get().nextDouble() < errorRate) {
+            errorCount.incrementAndGet();
+            response.sendError(503, "Injected error");
+            return;
+        }
+
+        if (path.endsWith(".jar")) {
+            long size = repository.getJarSize(path);
+            if (size < 0) {
+                response.sendError(404);
+                return;
+            }
+            // Clients only ever ask for the size of JAR files, so there is no body
+            response.setHeader("Content-Length", Long.toString(size));
+            if (!request.getMethod().equals("HEAD")) {
+                response.setStatus(204);
+            }
+            return;
+        }
+
+        String content = repository.getContent(path);
+        if (content == null) {
+            response.sendError(404);
+            return;
+        }
+        byte[] bytes = content.getBytes(UTF_8);
+        response.setContentType(path.endsWith(".sha1") ? "text/plain" : "text/xml");
+        response.setContentLength(bytes.length);
+        if (!request.getMethod().equals("HEAD")) {
+            OutputStream out = response.getOutputStream();
+            out.write(bytes);
+            bytesSent.addAndGet(bytes.length);
+        }
+    }
+
+    private void delay() {
+        long millis = latency + ((jitter > 0) ? (long) (random.get().nextDouble() * jitter) : 0);
+        if (millis > 0) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests received so far.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of requests that failed due to error injection.
+     */
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * Returns the number of response body bytes sent so far.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+}
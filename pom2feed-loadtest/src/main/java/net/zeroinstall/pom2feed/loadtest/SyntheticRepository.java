@@ -0,0 +1,285 @@
+package net.zeroinstall.pom2feed.loadtest;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkArgument;
+import com.google.common.hash.Hashing;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the files of a Maven repository with many artifacts on demand,
+ * without keeping them in memory or on disk. The same parameters always
+ * produce the same repository.
+ *
+ * Artifacts are numbered from <code>0</code>. The first
+ * <code>hugeArtifacts</code> have <code>hugeVersions</code> versions each,
+ * the others between 1 and <code>maxVersions</code>. Every POM inherits from
+ * a chain of <code>parentDepth</code> parent POMs, which define properties
+ * and plugin configuration used by the artifacts, and depends on a few other
+ * artifacts.
+ */
+public class SyntheticRepository {
+
+    /**
+     * The group ID of the parent POMs. Artifacts are spread over groups below
+     * it.
+     */
+    public final static String GROUP_ID = "org.example.load";
+    private final static String GROUP_PATH = GROUP_ID.replace('.', '/') + "/";
+    private final static int GROUPS = 100;
+    private final static Pattern ARTIFACT_PATTERN = Pattern.compile("g(\\d+)/artifact-(\\d+)/");
+    private final static Pattern FILE_PATTERN = Pattern.compile("([\\d.]+)/artifact-(\\d+)-([\\d.]+)\\.(pom|jar|jar\\.sha1)");
+    private final static Pattern PARENT_PATTERN = Pattern.compile("parent-(\\d+)/1/parent-(\\d+)-1\\.pom");
+    private final int artifacts;
+    private final int hugeArtifacts;
+    private final int hugeVersions;
+    private final int maxVersions;
+    private final int parentDepth;
+
+    /**
+     * Creates a repository.
+     *
+     * @param artifacts The total number of artifacts.
+     * @param hugeArtifacts The number of artifacts with
+     * <code>hugeVersions</code> versions.
+     * @param hugeVersions The number of versions of huge artifacts.
+     * @param maxVersions The maximum number of versions of other artifacts.
+     * @param parentDepth The number of parent POMs each POM inherits from.
+     */
+    public SyntheticRepository(int artifacts, int hugeArtifacts, int hugeVersions, int maxVersions, int parentDepth) {
+        checkArgument(artifacts > 0, "invalid number of artifacts: %s", artifacts);
+        checkArgument(hugeArtifacts >= 0 && hugeArtifacts <= artifacts, "invalid number of huge artifacts: %s", hugeArtifacts);
+        checkArgument(hugeVersions > 0, "invalid number of huge versions: %s", hugeVersions);
+        checkArgument(maxVersions > 0, "invalid number of versions: %s", maxVersions);
+        checkArgument(parentDepth >= 0, "invalid parent depth: %s", parentDepth);
+        this.artifacts = artifacts;
+        this.hugeArtifacts = hugeArtifacts;
+        this.hugeVersions = hugeVersions;
+        this.maxVersions = maxVersions;
+        this.parentDepth = parentDepth;
+    }
+
+    public int getArtifactCount() {
+        return artifacts;
+    }
+
+    /**
+     * Returns the path of an artifact relative to the repository root, e.g.
+     * <code>org/example/load/g7/artifact-107/</code>.
+     *
+     * @param index The number of the artifact; artifacts beyond
+     * {@link #getArtifactCount()} do not exist in the repository.
+     */
+    public String getArtifactPath(int index) {
+        return GROUP_PATH + "g" + (index % GROUPS) + "/artifact-" + index + "/";
+    }
+
+    /**
+     * Returns the number of versions of an artifact.
+     */
+    public int getVersionCount(int index) {
+        return (index < hugeArtifacts) ? hugeVersions : 1 + mix(index) % maxVersions;
+    }
+
+    /**
+     * Returns a version of an artifact. Versions are ascending, e.g.
+     * <code>1.0.0</code>, <code>1.0.1</code> ... <code>1.0.9</code>,
+     * <code>1.1.0</code>.
+     *
+     * @param number The number of the version, starting with <code>0</code>.
+     */
+    public static String getVersion(int number) {
+        return (1 + number / 100) + "." + (number / 10 % 10) + "." + (number % 10);
+    }
+
+    /**
+     * Returns the content of a file in the repository.
+     *
+     * @param path The path of the file relative to the repository root.
+     * @return <code>null</code> if the file does not exist or is a JAR file.
+     */
+    public String getContent(String path) {
+        if (!path.startsWith(GROUP_PATH)) {
+            return null;
+        }
+        String relativePath = path.substring(GROUP_PATH.length());
+
+        Matcher parent = PARENT_PATTERN.matcher(relativePath);
+        if (parent.matches() && parent.group(1).equals(parent.group(2))) {
+            int level = Integer.parseInt(parent.group(1));
+            return (level < parentDepth) ? getParentPom(level) : null;
+        }
+
+        Matcher artifact = ARTIFACT_PATTERN.matcher(relativePath);
+        if (!artifact.lookingAt()) {
+            return null;
+        }
+        int index = parseIndex(artifact.group(2));
+        if (index < 0 || index % GROUPS != Integer.parseInt(artifact.group(1))) {
+            return null;
+        }
+        String fileName = relativePath.substring(artifact.end());
+        if (fileName.equals("maven-metadata.xml")) {
+            return getMetadata(index);
+        }
+
+        Matcher file = FILE_PATTERN.matcher(fileName);
+        if (!file.matches() || !file.group(1).equals(file.group(3)) || parseIndex(file.group(2)) != index
+                || !hasVersion(index, file.group(1))) {
+            return null;
+        }
+        if (file.group(4).equals("pom")) {
+            return getPom(index, file.group(1));
+        } else if (file.group(4).equals("jar.sha1")) {
+            String hash = Hashing.sha1().hashString(path, UTF_8).toString();
+            return hash + "  artifact-" + index + "-" + file.group(1) + ".jar\n";
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the size of a JAR file in the repository.
+     *
+     * @param path The path of the file relative to the repository root.
+     * @return <code>-1</code> if the file does not exist.
+     */
+    public long getJarSize(String path) {
+        if (!path.endsWith(".jar")) {
+            return -1;
+        }
+        // The hash file exists exactly if the JAR file exists
+        return (getContent(path + ".sha1") == null) ? -1 : 1024 + mix(path.hashCode()) % 1000000;
+    }
+
+    private int parseIndex(String value) {
+        try {
+            int index = Integer.parseInt(value);
+            return (index < artifacts) ? index : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private boolean hasVersion(int index, String version) {
+        String[] parts = version.split("\\.");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int minor = Integer.parseInt(parts[1]);
+            int patch = Integer.parseInt(parts[2]);
+            int number = (Integer.parseInt(parts[0]) - 1) * 100 + minor * 10 + patch;
+            return minor < 10 && patch < 10 && number >= 0 && number < getVersionCount(index)
+                    && getVersion(number).equals(version);
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private String getMetadata(int index) {
+        int versions = getVersionCount(index);
+        StringBuilder builder = new StringBuilder(200 + versions * 40);
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata>\n");
+        builder.append("  <groupId>").append(getGroupId(index)).append("</groupId>\n");
+        builder.append("  <artifactId>artifact-").append(index).append("</artifactId>\n");
+        builder.append("  <versioning>\n");
+        builder.append("    <latest>").append(getVersion(versions - 1)).append("</latest>\n");
+        builder.append("    <release>").append(getVersion(versions - 1)).append("</release>\n");
+        builder.append("    <versions>\n");
+        for (int i = 0; i < versions; i++) {
+            builder.append("      <version>").append(getVersion(i)).append("</version>\n");
+        }
+        builder.append("    </versions>\n");
+        builder.append("  </versioning>\n</metadata>\n");
+        return builder.toString();
+    }
+
+    private String getPom(int index, String version) {
+        StringBuilder builder = new StringBuilder(2000);
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>\n");
+        builder.append("  <modelVersion>4.0.0</modelVersion>\n");
+        appendParent(builder, parentDepth - 1);
+        builder.append("  <groupId>").append(getGroupId(index)).append("</groupId>\n");
+        builder.append("  <artifactId>artifact-").append(index).append("</artifactId>\n");
+        builder.append("  <version>").append(version).append("</version>\n");
+        builder.append("  <packaging>jar</packaging>\n");
+        builder.append("  <name>Artifact ").append(index).append("</name>\n");
+        builder.append("  <description>Synthetic artifact ").append(index).append(" for load tests.</description>\n");
+        builder.append("  <dependencies>\n");
+        for (int i = 1; i <= 3; i++) {
+            int dependency = mix(index * 31 + i) % artifacts;
+            if (dependency == index) {
+                continue;
+            }
+            builder.append("    <dependency>\n");
+            builder.append("      <groupId>").append(getGroupId(dependency)).append("</groupId>\n");
+            builder.append("      <artifactId>artifact-").append(dependency).append("</artifactId>\n");
+            builder.append("      <version>").append((i == 1) ? "[1.0.0,)" : (parentDepth > 0) ? "${dependency.version}" : "1.0.0").append("</version>\n");
+            if (i == 3) {
+                builder.append("      <optional>true</optional>\n");
+            }
+            builder.append("    </dependency>\n");
+        }
+        builder.append("    <dependency>\n");
+        builder.append("      <groupId>junit</groupId>\n");
+        builder.append("      <artifactId>junit</artifactId>\n");
+        builder.append("      <version>4.12</version>\n");
+        builder.append("      <scope>test</scope>\n");
+        builder.append("    </dependency>\n");
+        builder.append("  </dependencies>\n</project>\n");
+        return builder.toString();
+    }
+
+    private String getParentPom(int level) {
+        StringBuilder builder = new StringBuilder(1000);
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>\n");
+        builder.append("  <modelVersion>4.0.0</modelVersion>\n");
+        appendParent(builder, level - 1);
+        builder.append("  <groupId>").append(GROUP_ID).append("</groupId>\n");
+        builder.append("  <artifactId>parent-").append(level).append("</artifactId>\n");
+        builder.append("  <version>1</version>\n");
+        builder.append("  <packaging>pom</packaging>\n");
+        builder.append("  <properties>\n");
+        builder.append("    <level").append(level).append(".name>Parent ").append(level).append("</level").append(level).append(".name>\n");
+        if (level == 0) {
+            builder.append("    <java.version>1.6</java.version>\n");
+            builder.append("    <dependency.version>1.0.0</dependency.version>\n");
+        }
+        builder.append("  </properties>\n");
+        if (level == 0) {
+            builder.append("  <build>\n    <plugins>\n      <plugin>\n");
+            builder.append("        <groupId>org.apache.maven.plugins</groupId>\n");
+            builder.append("        <artifactId>maven-compiler-plugin</artifactId>\n");
+            builder.append("        <version>3.7.0</version>\n");
+            builder.append("        <configuration>\n          <target>${java.version}</target>\n        </configuration>\n");
+            builder.append("      </plugin>\n    </plugins>\n  </build>\n");
+        }
+        builder.append("</project>\n");
+        return builder.toString();
+    }
+
+    private static void appendParent(StringBuilder builder, int level) {
+        if (level < 0) {
+            return;
+        }
+        builder.append("  <parent>\n");
+        builder.append("    <groupId>").append(GROUP_ID).append("</groupId>\n");
+        builder.append("    <artifactId>parent-").append(level).append("</artifactId>\n");
+        builder.append("    <version>1</version>\n");
+        builder.append("  </parent>\n");
+    }
+
+    private static String getGroupId(int index) {
+        return GROUP_ID + ".g" + (index % GROUPS);
+    }
+
+    /**
+     * Scrambles a number into a non-negative pseudo-random number.
+     */
+    private static int mix(int value) {
+        int hash = value * 0x9E3779B1;
+        hash ^= hash >>> 15;
+        return hash & Integer.MAX_VALUE;
+    }
+}
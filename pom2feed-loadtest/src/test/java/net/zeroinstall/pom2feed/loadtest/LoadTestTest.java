@@ -0,0 +1,35 @@
+package net.zeroinstall.pom2feed.loadtest;
+
+import java.util.Properties;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class LoadTestTest {
+
+    @Test
+    public void testRun() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("pom2feed-loadtest.artifacts", "50");
+        properties.setProperty("pom2feed-loadtest.hugeArtifacts", "1");
+        properties.setProperty("pom2feed-loadtest.hugeVersions", "120");
+        properties.setProperty("pom2feed-loadtest.maxVersions", "5");
+        properties.setProperty("pom2feed-loadtest.parentDepth", "3");
+        properties.setProperty("pom2feed-loadtest.latency", "0");
+        properties.setProperty("pom2feed-loadtest.jitter", "0");
+        properties.setProperty("pom2feed-loadtest.missingRate", "0.1");
+        properties.setProperty("pom2feed-loadtest.clients", "4");
+        properties.setProperty("pom2feed-loadtest.duration", "2");
+
+        LoadTest.Result result = new LoadTest(properties).run();
+
+        assertTrue(result.getRequestCount() > 0);
+        assertNotNull(result.getStatusCounts().get(200));
+        for (int status : result.getStatusCounts().keySet()) {
+            // Missing artifacts are the only failures without injected errors
+            assertTrue("unexpected status " + status, status == 200 || status == 404);
+        }
+        assertTrue(result.getGeneratedFeeds() > 0);
+        assertTrue(result.getUpstreamRequests() >= result.getGeneratedFeeds());
+        assertTrue(result.getLatencyPercentile(50) <= result.getLatencyPercentile(99));
+    }
+}
@@ -0,0 +1,57 @@
+package net.zeroinstall.pom2feed.loadtest;
+
+import static com.google.common.base.Charsets.UTF_8;
+import java.io.ByteArrayInputStream;
+import net.zeroinstall.pom2feed.core.MavenMetadata;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class SyntheticRepositoryTest {
+
+    private final SyntheticRepository repository = new SyntheticRepository(500, 2, 1200, 10, 3);
+
+    @Test
+    public void testMetadata() throws Exception {
+        MavenMetadata metadata = parseMetadata(repository.getArtifactPath(1));
+        assertEquals("org.example.load.g1", metadata.getGroupId());
+        assertEquals("artifact-1", metadata.getArtifactId());
+        assertEquals(1200, metadata.getVersions().size());
+        assertEquals("1.0.0", metadata.getVersions().get(0));
+        assertEquals("12.9.9", metadata.getLatestVersion());
+
+        for (int i = 2; i < 500; i++) {
+            int versions = parseMetadata(repository.getArtifactPath(i)).getVersions().size();
+            assertTrue(versions >= 1 && versions <= 10);
+            assertEquals(repository.getVersionCount(i), versions);
+        }
+    }
+
+    @Test
+    public void testFiles() {
+        String versionPath = repository.getArtifactPath(107) + "1.0.0/artifact-107-1.0.0";
+        String pom = repository.getContent(versionPath + ".pom");
+        assertTrue(pom.contains("<artifactId>artifact-107</artifactId>"));
+        assertTrue(pom.contains("<artifactId>parent-2</artifactId>"));
+        assertTrue(repository.getContent(versionPath + ".jar.sha1").matches("[0-9a-f]{40}  artifact-107-1.0.0.jar\n"));
+        assertTrue(repository.getJarSize(versionPath + ".jar") >= 1024);
+        assertEquals(repository.getJarSize(versionPath + ".jar"), repository.getJarSize(versionPath + ".jar"));
+
+        assertTrue(repository.getContent("org/example/load/parent-0/1/parent-0-1.pom").contains("<java.version>"));
+        assertTrue(repository.getContent("org/example/load/parent-2/1/parent-2-1.pom").contains("<artifactId>parent-1</artifactId>"));
+    }
+
+    @Test
+    public void testMissing() {
+        assertNull(repository.getContent(repository.getArtifactPath(500) + "maven-metadata.xml"));
+        assertNull(repository.getContent("org/example/load/g8/artifact-107/maven-metadata.xml"));
+        assertNull(repository.getContent("org/example/load/parent-3/1/parent-3-1.pom"));
+        assertNull(repository.getContent(repository.getArtifactPath(107) + "99.0.0/artifact-107-99.0.0.pom"));
+        assertNull(repository.getContent(repository.getArtifactPath(107) + "1.0.0/artifact-108-1.0.0.pom"));
+        assertNull(repository.getContent("com/example/other/maven-metadata.xml"));
+        assertEquals(-1, repository.getJarSize(repository.getArtifactPath(107) + "1.0.0/artifact-107-1.0.1.jar"));
+    }
+
+    private MavenMetadata parseMetadata(String artifactPath) throws Exception {
+        return MavenMetadata.parse(new ByteArrayInputStream(repository.getContent(artifactPath + "maven-metadata.xml").getBytes(UTF_8)));
+    }
+}
@@ -0,0 +1,21 @@
+package net.zeroinstall.pom2feed.service;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Provides Zero Install feeds for specific Maven artifacts without blocking
+ * the calling thread.
+ */
+public interface AsyncFeedProvider {
+
+    /**
+     * Provides a Zero Install feed for a specific Maven artifact along with
+     * HTTP validators for it.
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @return A future of the feed. Fails with the same exceptions as
+     * {@link FeedProvider#getFeed(String)}.
+     */
+    ListenableFuture<CachedResponse> getResponseAsync(String artifactPath);
+}
@@ -0,0 +1,185 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.*;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.*;
+
+/**
+ * Counts requests for feeds and periodically saves the most requested
+ * artifact paths to a file, so the feed cache can be filled with them in the
+ * background after a restart instead of making the first users wait.
+ */
+public class CacheWarmer {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(CacheWarmer.class);
+    private final File snapshotFile;
+    /**
+     * The maximum number of artifact paths kept in snapshots.
+     */
+    private final int maxEntries;
+    /**
+     * The maximum number of artifact paths counted between snapshots.
+     */
+    private final int maxTracked;
+    private final AtomicLongMap<String> accessCounts = AtomicLongMap.create();
+    /**
+     * The number of top artifact paths from the snapshot that have not been
+     * loaded yet; <code>-1</code> if warming up has not started.
+     */
+    private final AtomicInteger pendingHotKeys = new AtomicInteger(-1);
+
+    /**
+     * Creates a cache warmer and restores access counts from the snapshot
+     * file.
+     *
+     * @param snapshotFile The file access counts are saved to.
+     * @param maxEntries The maximum number of artifact paths to track.
+     * @throws IOException The snapshot file could not be read.
+     */
+    public CacheWarmer(File snapshotFile, int maxEntries) throws IOException {
+        checkArgument(maxEntries > 0, "invalid maximum number of entries: %s", maxEntries);
+        this.snapshotFile = checkNotNull(snapshotFile);
+        this.maxEntries = maxEntries;
+        this.maxTracked = maxEntries * 10;
+        restore();
+    }
+
+    private void restore() throws IOException {
+        if (!snapshotFile.isFile()) {
+            return;
+        }
+        for (String line : Files.readLines(snapshotFile, UTF_8)) {
+            List<String> fields = Splitter.on('\t').limit(2).splitToList(line);
+            if (fields.size() != 2 || !ArtifactUtils.validatePath(fields.get(1))) {
+                continue;
+            }
+            try {
+                accessCounts.put(fields.get(1), Long.parseLong(fields.get(0)));
+            } catch (NumberFormatException ex) {
+                LOGGER.warn("Ignoring malformed line in " + snapshotFile + ": " + line);
+            }
+        }
+    }
+
+    /**
+     * Counts a request for a feed. Requests for artifact paths not counted
+     * yet are ignored while the maximum number of tracked paths is reached,
+     * until the next {@link #snapshot()} forgets less requested ones.
+     */
+    public void recordAccess(String artifactPath) {
+        if (accessCounts.size() >= maxTracked && !accessCounts.containsKey(artifactPath)) {
+            return;
+        }
+        accessCounts.incrementAndGet(artifactPath);
+    }
+
+    /**
+     * Returns the most requested artifact paths, most requested first.
+     *
+     * @param limit The maximum number of paths to return.
+     */
+    public List<String> getHotKeys(int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(accessCounts.asMap().entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+                int result = o2.getValue().compareTo(o1.getValue());
+                return (result == 0) ? o1.getKey().compareTo(o2.getKey()) : result;
+            }
+        });
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * Saves the most requested artifact paths along with their access counts
+     * and forgets less requested ones. Counts are halved afterwards so the
+     * snapshot follows changes in popularity over time.
+     *
+     * @throws IOException The snapshot file could not be written.
+     */
+    public void snapshot() throws IOException {
+        List<String> hotKeys = getHotKeys(maxEntries);
+        StringBuilder builder = new StringBuilder();
+        for (String artifactPath : hotKeys) {
+            builder.append(accessCounts.get(artifactPath)).append('\t').append(artifactPath).append('\n');
+        }
+        FeedStore.writeAtomically(snapshotFile, builder.toString().getBytes(UTF_8));
+
+        Set<String> retained = new HashSet<String>(hotKeys);
+        for (String artifactPath : new ArrayList<String>(accessCounts.asMap().keySet())) {
+            if (retained.contains(artifactPath)) {
+                long count = accessCounts.get(artifactPath);
+                accessCounts.addAndGet(artifactPath, -(count / 2));
+            } else {
+                accessCounts.remove(artifactPath);
+            }
+        }
+        accessCounts.removeAllZeros();
+    }
+
+    /**
+     * Loads the most requested artifact paths into a cache in the
+     * background.
+     *
+     * @param provider The cache to fill.
+     * @param executor Runs the loop issuing the loads.
+     * @param concurrency The maximum number of feeds loaded at the same time.
+     * @param readyCount The number of most requested paths that need to be
+     * loaded before {@link #isReady()} returns <code>true</code>.
+     */
+    public void warmUp(final AsyncFeedProvider provider, Executor executor, final int concurrency, int readyCount) {
+        checkArgument(concurrency > 0, "invalid concurrency: %s", concurrency);
+        final List<String> hotKeys = getHotKeys(maxEntries);
+        final int hotCount = Math.min(readyCount, hotKeys.size());
+        pendingHotKeys.set(hotCount);
+        LOGGER.info("Warming up cache with " + hotKeys.size() + " feeds");
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Semaphore permits = new Semaphore(concurrency);
+                for (int i = 0; i < hotKeys.size(); i++) {
+                    final boolean hot = i < hotCount;
+                    permits.acquireUninterruptibly();
+                    try {
+                        // Failures are cached as well and need not be reported here
+                        provider.getResponseAsync(hotKeys.get(i)).addListener(new Runnable() {
+                            @Override
+                            public void run() {
+                                permits.release();
+                                if (hot && pendingHotKeys.decrementAndGet() == 0) {
+                                    LOGGER.info("Cache warmed up");
+                                }
+                            }
+                        }, MoreExecutors.directExecutor());
+                    } catch (RuntimeException ex) {
+                        LOGGER.warn("Unable to warm up " + hotKeys.get(i), ex);
+                        permits.release();
+                        if (hot) {
+                            pendingHotKeys.decrementAndGet();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Determines whether the most requested feeds have been loaded by
+     * {@link #warmUp(AsyncFeedProvider, Executor, int, int)}.
+     */
+    public boolean isReady() {
+        return pendingHotKeys.get() == 0;
+    }
+}
@@ -0,0 +1,278 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An HTTP response body along with the validators clients can use to make
+ * conditional requests for it. The body is encoded as UTF-8 and compressed
+ * with gzip once when the response is created, so it can be written to
+ * clients without further transformation.
+ */
+public class CachedResponse {
+
+    /**
+     * The UTF-8 encoded response body.
+     */
+    private final byte[] body;
+    /**
+     * The gzip compressed response body; <code>null</code> if compression
+     * does not reduce the size.
+     */
+    private final byte[] gzipBody;
+    private final String contentType;
+    private final String eTag;
+    private final String gzipETag;
+    private final long lastModified;
+    private final long expires;
+    /**
+     * The time after which the content should have been revalidated in
+     * milliseconds since the epoch. Differs from {@link #expires} only while
+     * updates of the content keep failing.
+     */
+    private final long outdatedSince;
+    /**
+     * The number of consecutive failed attempts to update the content.
+     */
+    private final int failedUpdates;
+
+    /**
+     * Creates a cached response.
+     *
+     * @param content The response body.
+     * @param contentType The MIME type of the response body.
+     * @param lastModified The time the content was last changed in
+     * milliseconds since the epoch.
+     * @param expires The time after which the content should be revalidated
+     * in milliseconds since the epoch.
+     */
+    public CachedResponse(String content, String contentType, long lastModified, long expires) {
+        this(content.getBytes(UTF_8), contentType, lastModified, expires);
+    }
+
+    private CachedResponse(byte[] body, String contentType, long lastModified, long expires) {
+        this.body = body;
+        this.gzipBody = gzip(body);
+        this.contentType = checkNotNull(contentType);
+        String hash = Hashing.sha1().hashBytes(body).toString();
+        this.eTag = '"' + hash + '"';
+        this.gzipETag = '"' + hash + "-gzip\"";
+        // HTTP dates have a resolution of seconds
+        this.lastModified = lastModified - lastModified % 1000;
+        this.expires = expires;
+        this.outdatedSince = expires;
+        this.failedUpdates = 0;
+    }
+
+    /**
+     * Creates a copy of a cached response with a different expiry time.
+     */
+    private CachedResponse(CachedResponse original, long expires, long outdatedSince, int failedUpdates) {
+        this.body = original.body;
+        this.gzipBody = original.gzipBody;
+        this.contentType = original.contentType;
+        this.eTag = original.eTag;
+        this.gzipETag = original.gzipETag;
+        this.lastModified = original.lastModified;
+        this.expires = expires;
+        this.outdatedSince = outdatedSince;
+        this.failedUpdates = failedUpdates;
+    }
+
+    /**
+     * Creates a cached response that replaces this one. Keeps the
+     * modification time, entity tags and compressed body of this response if
+     * the content did not change.
+     *
+     * @param content The new response body.
+     * @param expires The time after which the new content should be
+     * revalidated in milliseconds since the epoch.
+     */
+    public CachedResponse replace(String content, long expires) {
+        byte[] newBody = content.getBytes(UTF_8);
+        return Arrays.equals(newBody, body)
+                ? new CachedResponse(this, expires, expires, 0)
+                : new CachedResponse(newBody, contentType, System.currentTimeMillis(), expires);
+    }
+
+    /**
+     * Creates a copy of this response to keep serving after an attempt to
+     * update it failed.
+     *
+     * @param expires The time after which the update should be retried in
+     * milliseconds since the epoch.
+     */
+    public CachedResponse retryLater(long expires) {
+        return new CachedResponse(this, expires, outdatedSince, failedUpdates + 1);
+    }
+
+    /**
+     * Returns the response body as a string. Decodes the body on every call.
+     */
+    public String getContent() {
+        return new String(body, UTF_8);
+    }
+
+    /**
+     * Returns the response body to send.
+     *
+     * @param gzip <code>true</code> to get the compressed body if available.
+     * @return The body; must not be modified.
+     */
+    public byte[] getBody(boolean gzip) {
+        return (gzip && gzipBody != null) ? gzipBody : body;
+    }
+
+    /**
+     * Determines whether {@link #getBody(boolean)} returns a different,
+     * compressed body when asked for gzip.
+     */
+    public boolean isCompressed() {
+        return gzipBody != null;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns a strong entity tag derived from the content.
+     *
+     * @param gzip <code>true</code> to get the tag of the compressed body.
+     */
+    public String getETag(boolean gzip) {
+        return (gzip && gzipBody != null) ? gzipETag : eTag;
+    }
+
+    /**
+     * Returns the time the content was last changed in milliseconds since the
+     * epoch, truncated to whole seconds.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Determines whether the content should be revalidated.
+     */
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expires;
+    }
+
+    /**
+     * Returns the time after which the content should have been revalidated
+     * in milliseconds since the epoch, regardless of failed updates.
+     */
+    public long getOutdatedSince() {
+        return outdatedSince;
+    }
+
+    /**
+     * Returns the number of consecutive failed attempts to update the
+     * content.
+     */
+    public int getFailedUpdates() {
+        return failedUpdates;
+    }
+
+    /**
+     * Returns the number of seconds clients may reuse the content without
+     * revalidating it.
+     *
+     * @param limit The maximum number of seconds to return.
+     */
+    public long getMaxAge(long limit) {
+        long remaining = (expires - System.currentTimeMillis()) / 1000;
+        return Math.max(0, Math.min(limit, remaining));
+    }
+
+    /**
+     * Determines whether a client already holds the current content.
+     *
+     * @param ifNoneMatch The value of the <code>If-None-Match</code> request
+     * header; may be <code>null</code>.
+     * @param ifModifiedSince The value of the <code>If-Modified-Since</code>
+     * request header in milliseconds since the epoch; <code>-1</code> if
+     * missing.
+     * @return <code>true</code> if a 304 response should be sent.
+     */
+    public boolean isNotModified(String ifNoneMatch, long ifModifiedSince) {
+        if (ifNoneMatch != null) {
+            // If-Modified-Since is ignored when entity tags are present
+            for (String tag : Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(eTag) || tag.equals(gzipETag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+    }
+
+    /**
+     * Determines whether a client accepts gzip compressed responses.
+     *
+     * @param acceptEncoding The value of the <code>Accept-Encoding</code>
+     * request header; may be <code>null</code>.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String coding : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptEncoding)) {
+            String name = coding;
+            boolean accepted = true;
+            int separator = coding.indexOf(';');
+            if (separator >= 0) {
+                name = coding.substring(0, separator).trim();
+                accepted = !isZeroQuality(coding.substring(separator + 1));
+            }
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                return accepted;
+            } else if (name.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        for (String parameter : Splitter.on(';').trimResults().split(parameters)) {
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) <= 0;
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compresses data with gzip.
+     *
+     * @return <code>null</code> if compression does not reduce the size.
+     */
+    private static byte[] gzip(byte[] data) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 4 + 64);
+            GZIPOutputStream stream = new GZIPOutputStream(buffer);
+            stream.write(data);
+            stream.close();
+            return (buffer.size() < data.length) ? buffer.toByteArray() : null;
+        } catch (IOException ex) {
+            // Not possible with in-memory streams
+            throw new RuntimeException(ex);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Preconditions.*;
+import com.google.common.util.concurrent.*;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import net.zeroinstall.model.*;
+import static net.zeroinstall.pom2feed.core.UrlUtils.ensureSlashEnd;
+import org.apache.xmlbeans.XmlException;
+import org.slf4j.*;
+
+/**
+ * Generates the feeds of dependencies in the background after a feed has
+ * been generated, since clients request them right afterwards.
+ */
+class DependencyPrefetcher {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(DependencyPrefetcher.class);
+    private final FeedCache cache;
+    /**
+     * The URL prefix of feeds provided by this service.
+     */
+    private final String serviceURL;
+    private final Executor executor;
+    /**
+     * Loads prefetched feeds on the thread of {@link #executor}.
+     */
+    private final ListeningExecutorService loader = MoreExecutors.newDirectExecutorService();
+    /**
+     * The maximum number of dependency levels to prefetch.
+     */
+    private final int maxDepth;
+    private final RateLimiter rateLimiter;
+    /**
+     * The dependency levels of feeds that are queued for prefetching.
+     */
+    private final ConcurrentMap<String, Integer> queuedDepths = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Creates a dependency prefetcher.
+     *
+     * @param cache The cache to fill.
+     * @param serviceURL The URL of this service. Dependencies on other
+     * services are ignored.
+     * @param executor Runs prefetching. Should use a bounded queue and reject
+     * tasks when it is full.
+     * @param maxDepth The maximum number of dependency levels to prefetch.
+     * @param permitsPerSecond The maximum number of feeds prefetched per
+     * second.
+     */
+    public DependencyPrefetcher(FeedCache cache, URL serviceURL, Executor executor, int maxDepth, double permitsPerSecond) {
+        checkArgument(maxDepth > 0, "invalid depth: %s", maxDepth);
+        this.cache = checkNotNull(cache);
+        this.serviceURL = ensureSlashEnd(serviceURL).toString();
+        this.executor = checkNotNull(executor);
+        this.maxDepth = maxDepth;
+        this.rateLimiter = RateLimiter.create(permitsPerSecond);
+    }
+
+    /**
+     * Queues the dependencies of a newly generated feed for prefetching
+     * unless the feed itself was prefetched at the maximum depth.
+     *
+     * @param artifactPath The path of the generated feed.
+     * @param feed The generated feed.
+     */
+    public void feedLoaded(String artifactPath, final String feed) {
+        Integer queuedDepth = queuedDepths.remove(artifactPath);
+        final int depth = (queuedDepth == null) ? 1 : queuedDepth + 1;
+        if (depth > maxDepth) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (String dependency : getDependencies(feed)) {
+                        queue(dependency, depth);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOGGER.debug("Prefetch queue full, skipping dependencies of " + artifactPath);
+        }
+    }
+
+    /**
+     * Queues a feed for prefetching. The feed is loaded on the thread of the
+     * executor rather than the cache's load executor, so prefetching never
+     * occupies the threads that load feeds requested by clients. Clients
+     * requesting the feed while it is loaded share the load.
+     */
+    private void queue(final String artifactPath, int depth) {
+        if (cache.isCached(artifactPath) || queuedDepths.putIfAbsent(artifactPath, depth) != null) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    rateLimiter.acquire();
+                    Futures.addCallback(cache.getResponseAsync(artifactPath, loader), new FutureCallback<CachedResponse>() {
+                        @Override
+                        public void onSuccess(CachedResponse result) {
+                            queuedDepths.remove(artifactPath);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable ex) {
+                            queuedDepths.remove(artifactPath);
+                            LOGGER.debug("Unable to prefetch " + artifactPath, ex);
+                        }
+                    }, MoreExecutors.directExecutor());
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            queuedDepths.remove(artifactPath);
+            LOGGER.debug("Prefetch queue full, skipping " + artifactPath);
+        }
+    }
+
+    /**
+     * Returns the artifact paths of the feeds required by the latest
+     * implementation in a feed, which is the one clients usually select.
+     */
+    List<String> getDependencies(String feed) {
+        Implementation[] implementations;
+        try {
+            implementations = InterfaceDocument.Factory.parse(feed).getInterface().getImplementationArray();
+        } catch (XmlException ex) {
+            LOGGER.debug("Unable to parse feed for prefetching", ex);
+            return Collections.emptyList();
+        }
+        if (implementations.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (Dependency dependency : implementations[implementations.length - 1].getRequiresArray()) {
+            String url = dependency.getInterface();
+            if (url != null && url.startsWith(serviceURL)) {
+                String artifactPath = url.substring(serviceURL.length());
+                if (ArtifactUtils.validatePath(artifactPath)) {
+                    result.add(artifactPath);
+                }
+            }
+        }
+        return result;
+    }
+}
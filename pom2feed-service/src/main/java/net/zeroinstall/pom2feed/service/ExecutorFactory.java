@@ -0,0 +1,201 @@
+package net.zeroinstall.pom2feed.service;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.*;
+import org.slf4j.*;
+
+/**
+ * Creates the executors running feed generation and upstream I/O, either on
+ * platform threads or on virtual threads.
+ */
+class ExecutorFactory {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ExecutorFactory.class);
+    private final boolean virtualThreads;
+
+    /**
+     * Creates an executor factory.
+     *
+     * @param virtualThreads <code>true</code> to run each task on its own
+     * virtual thread if the Java runtime supports it (Java 21 or newer).
+     */
+    public ExecutorFactory(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads && isVirtualThreadSupported();
+        if (virtualThreads && !this.virtualThreads) {
+            LOGGER.warn("Virtual threads are not supported by this Java runtime, using platform threads");
+        }
+    }
+
+    /**
+     * Determines whether the executors run tasks on virtual threads.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Creates an executor using a fixed number of daemon platform threads or
+     * a new virtual thread per task. Either way no more tasks than the number
+     * of platform threads run at the same time, so upstream requests made by
+     * the tasks stay bounded.
+     *
+     * @param nameFormat The name format for threads, e.g.
+     * <code>pom2feed-%d</code>.
+     * @param platformThreads The number of platform threads to use; the
+     * maximum number of tasks running at the same time for virtual threads.
+     */
+    public ExecutorService newFixedThreadPool(String nameFormat, int platformThreads) {
+        if (virtualThreads) {
+            return limitConcurrency(newVirtualThreadPerTaskExecutor(nameFormat), platformThreads);
+        }
+        return Executors.newFixedThreadPool(platformThreads, newPlatformThreadFactory(nameFormat));
+    }
+
+    /**
+     * Creates an executor using an unbounded number of daemon platform
+     * threads or a new virtual thread per task.
+     *
+     * @param nameFormat The name format for threads, e.g.
+     * <code>pom2feed-%d</code>.
+     */
+    public ExecutorService newCachedThreadPool(String nameFormat) {
+        if (virtualThreads) {
+            return newVirtualThreadPerTaskExecutor(nameFormat);
+        }
+        return Executors.newCachedThreadPool(newPlatformThreadFactory(nameFormat));
+    }
+
+    /**
+     * Creates an executor for CPU-bound work. Always uses a fixed number of
+     * daemon platform threads, since virtual threads would not bound the
+     * number of tasks running at the same time.
+     *
+     * @param nameFormat The name format for threads, e.g.
+     * <code>pom2feed-%d</code>.
+     * @param threads The number of threads to use.
+     */
+    public ExecutorService newComputeThreadPool(String nameFormat, int threads) {
+        return Executors.newFixedThreadPool(threads, newPlatformThreadFactory(nameFormat));
+    }
+
+    /**
+     * Creates an executor for background work that must not compete with
+     * requests. Always uses a single platform thread with minimum priority,
+     * since virtual threads cannot be prioritized.
+     *
+     * @param nameFormat The name format for threads, e.g.
+     * <code>pom2feed-%d</code>.
+     * @param queueSize The maximum number of waiting tasks. Further tasks
+     * are rejected.
+     */
+    public ExecutorService newLowPriorityExecutor(String nameFormat, int queueSize) {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true)
+                .setPriority(Thread.MIN_PRIORITY).build();
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), threadFactory);
+    }
+
+    private static ThreadFactory newPlatformThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    /**
+     * Determines whether the Java runtime provides virtual threads. Creates a
+     * virtual thread without starting it, since Java 19 and 20 only support
+     * them as a preview feature and fail when they are created otherwise.
+     */
+    static boolean isVirtualThreadSupported() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builderClass.getMethod("unstarted", Runnable.class).invoke(builder, new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            return true;
+        } catch (Exception ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Wraps an executor so that at most a specific number of its tasks run at
+     * the same time. Further tasks wait on their own threads, so this is only
+     * suitable for executors starting a new thread per task.
+     *
+     * @param executor The executor running the tasks.
+     * @param maxConcurrency The maximum number of tasks running at the same
+     * time.
+     */
+    static ExecutorService limitConcurrency(final ExecutorService executor, int maxConcurrency) {
+        final Semaphore permits = new Semaphore(maxConcurrency);
+        return new AbstractExecutorService() {
+            @Override
+            public void execute(final Runnable command) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            permits.acquire();
+                        } catch (InterruptedException ex) {
+                            // Shut down while waiting
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        try {
+                            command.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void shutdown() {
+                executor.shutdown();
+            }
+
+            @Override
+            public List<Runnable> shutdownNow() {
+                return executor.shutdownNow();
+            }
+
+            @Override
+            public boolean isShutdown() {
+                return executor.isShutdown();
+            }
+
+            @Override
+            public boolean isTerminated() {
+                return executor.isTerminated();
+            }
+
+            @Override
+            public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+                return executor.awaitTermination(timeout, unit);
+            }
+        };
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread for each task. Uses
+     * reflection since this code is compiled for older Java versions.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor(String nameFormat) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            String prefix = nameFormat.replace("%d", "");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (Exception ex) {
+            throw new UnsupportedOperationException("Virtual threads not available", ex);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.*;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.slf4j.*;
+
+/**
+ * Remembers versions of artifacts that could not be added to feeds, so they
+ * are skipped for a while instead of being retried on every regeneration.
+ * Failures are appended to a log file and restored from it on startup.
+ * Must be closed to release the log file.
+ */
+public class FailureMemo implements Closeable {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(FailureMemo.class);
+    /**
+     * The maximum length of stored failure reasons.
+     */
+    private final static int MAX_REASON_LENGTH = 500;
+    private final File logFile;
+    /**
+     * The time in milliseconds for which failed versions are skipped.
+     */
+    private final long backoff;
+    private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<String, Failure>();
+    private Writer writer;
+
+    /**
+     * Creates a failure memo and restores failures from the log file.
+     *
+     * @param logFile The file failures are appended to. Created if it does
+     * not exist yet.
+     * @param backoff The time for which failed versions are skipped.
+     * @param unit The unit of <code>backoff</code>.
+     * @throws IOException The log file could not be read or written.
+     */
+    public FailureMemo(File logFile, long backoff, TimeUnit unit) throws IOException {
+        checkArgument(backoff >= 0, "invalid backoff: %s", backoff);
+        this.logFile = checkNotNull(logFile);
+        this.backoff = unit.toMillis(backoff);
+        restore();
+    }
+
+    /**
+     * Reads failures that have not expired yet from the log file and rewrites
+     * it with only those, so the file does not grow indefinitely.
+     */
+    private void restore() throws IOException {
+        if (logFile.isFile()) {
+            for (String line : Files.readLines(logFile, UTF_8)) {
+                List<String> fields = Splitter.on('\t').limit(3).splitToList(line);
+                if (fields.size() != 3) {
+                    continue;
+                }
+                try {
+                    Failure failure = new Failure(fields.get(1), Long.parseLong(fields.get(0)), fields.get(2));
+                    if (!isExpired(failure)) {
+                        failures.put(failure.getCoordinates(), failure);
+                    }
+                } catch (NumberFormatException ex) {
+                    LOGGER.warn("Ignoring malformed line in " + logFile + ": " + line);
+                }
+            }
+        }
+
+        StringBuilder compacted = new StringBuilder();
+        for (Failure failure : failures.values()) {
+            compacted.append(failure.toLine());
+        }
+        FeedStore.writeAtomically(logFile, compacted.toString().getBytes(UTF_8));
+        this.writer = new OutputStreamWriter(new FileOutputStream(logFile, true), UTF_8);
+    }
+
+    /**
+     * Determines whether a version failed recently and should be skipped.
+     */
+    public boolean isFailing(String groupId, String artifactId, String version) {
+        String coordinates = getCoordinates(groupId, artifactId, version);
+        Failure failure = failures.get(coordinates);
+        if (failure == null) {
+            return false;
+        } else if (isExpired(failure)) {
+            failures.remove(coordinates, failure);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the time a recently failed version should be retried.
+     *
+     * @return The time in milliseconds since the epoch; <code>0</code> if the
+     * version did not fail recently.
+     */
+    public long getRetryTime(String groupId, String artifactId, String version) {
+        Failure failure = failures.get(getCoordinates(groupId, artifactId, version));
+        return (failure == null || isExpired(failure)) ? 0 : failure.time + backoff;
+    }
+
+    /**
+     * Records that a version could not be added to a feed.
+     *
+     * @param reason Describes why the version failed.
+     */
+    public void recordFailure(String groupId, String artifactId, String version, Exception reason) {
+        String message = String.valueOf(reason).replaceAll("\\s+", " ");
+        if (message.length() > MAX_REASON_LENGTH) {
+            message = message.substring(0, MAX_REASON_LENGTH);
+        }
+        Failure failure = new Failure(getCoordinates(groupId, artifactId, version), System.currentTimeMillis(), message);
+        failures.put(failure.getCoordinates(), failure);
+
+        synchronized (this) {
+            try {
+                writer.write(failure.toLine());
+                writer.flush();
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to write to failure log " + logFile, ex);
+            }
+        }
+    }
+
+    /**
+     * Returns all failures that have not expired yet, most recent first.
+     */
+    public List<Failure> getFailures() {
+        List<Failure> result = new ArrayList<Failure>();
+        for (Failure failure : failures.values()) {
+            if (!isExpired(failure)) {
+                result.add(failure);
+            }
+        }
+        Collections.sort(result, new Comparator<Failure>() {
+            @Override
+            public int compare(Failure o1, Failure o2) {
+                return (o1.time < o2.time) ? 1 : ((o1.time == o2.time) ? 0 : -1);
+            }
+        });
+        return result;
+    }
+
+    private boolean isExpired(Failure failure) {
+        return System.currentTimeMillis() - failure.time >= backoff;
+    }
+
+    /**
+     * Closes the log file. Failures recorded afterwards are only kept in
+     * memory.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    private static String getCoordinates(String groupId, String artifactId, String version) {
+        return groupId + ':' + artifactId + ':' + version;
+    }
+
+    /**
+     * A version of an artifact that could not be added to a feed.
+     */
+    public static class Failure {
+
+        private final String coordinates;
+        private final long time;
+        private final String reason;
+
+        Failure(String coordinates, long time, String reason) {
+            this.coordinates = coordinates;
+            this.time = time;
+            this.reason = reason;
+        }
+
+        /**
+         * Returns the coordinates of the version in the form
+         * <code>groupId:artifactId:version</code>.
+         */
+        public String getCoordinates() {
+            return coordinates;
+        }
+
+        /**
+         * Returns the time the failure occurred in milliseconds since the
+         * epoch.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns a single-line description of why the version failed.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        String toLine() {
+            return time + "\t" + coordinates + "\t" + reason + "\n";
+        }
+    }
+}
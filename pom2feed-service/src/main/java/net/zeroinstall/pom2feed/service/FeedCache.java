@@ -1,47 +1,509 @@
 package net.zeroinstall.pom2feed.service;
 
+import static com.google.common.base.Preconditions.*;
 import static com.google.common.base.Throwables.*;
 import com.google.common.cache.*;
-import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.*;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.URL;
+import java.util.Date;
+import java.util.Random;
 import java.util.concurrent.*;
+import javax.xml.xpath.XPathExpressionException;
+import net.zeroinstall.pom2feed.core.TraceEvent;
 import org.apache.maven.model.building.ModelBuildingException;
+import org.slf4j.*;
 import org.xml.sax.SAXException;
 
 /**
- * Caches requests for feeds in a thread-safe manner.
+ * Caches requests for feeds in a thread-safe manner. Outdated feeds continue
+ * to be served while they are updated in the background.
  */
-public class FeedCache implements FeedProvider {
+public class FeedCache implements FeedProvider, AsyncFeedProvider {
 
-    private final LoadingCache<String, String> cache;
+    private final static Logger LOGGER = LoggerFactory.getLogger(FeedCache.class);
+    /**
+     * The maximum fraction by which {@link #refreshInterval} is randomly
+     * shortened for individual feeds, so feeds loaded together are not all
+     * refreshed together.
+     */
+    private final static double REFRESH_JITTER = 0.2;
+    /**
+     * The time in milliseconds after which a failed update of a feed is
+     * first retried. Doubles with every further failure up to
+     * {@link #refreshInterval}.
+     */
+    private final static long RETRY_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private final FeedProvider backingProvider;
+    /**
+     * The time in milliseconds after which cached feeds are outdated.
+     */
+    private final long refreshInterval;
+    /**
+     * The time in milliseconds for which outdated feeds are served while
+     * updating them keeps failing before failures are logged as errors.
+     */
+    private long maxStaleness = TimeUnit.DAYS.toMillis(1);
+    private final LoadingCache<String, CachedResponse> cache;
+    /**
+     * Caches the failures of artifacts that do not exist or have invalid
+     * metadata. <code>null</code> if failures are not cached.
+     */
+    private Cache<String, Exception> negativeCache;
+    /**
+     * Executes asynchronous requests for feeds that are not cached yet.
+     */
+    private ListeningExecutorService loadExecutor = MoreExecutors.newDirectExecutorService();
+    /**
+     * Asynchronous requests for feeds that are currently being loaded, so
+     * concurrent requests for the same feed share a single load.
+     */
+    private final ConcurrentMap<String, ListenableFuture<CachedResponse>> pendingLoads = new ConcurrentHashMap<String, ListenableFuture<CachedResponse>>();
+    /**
+     * Prefetches the dependencies of newly generated feeds;
+     * <code>null</code> if disabled.
+     */
+    private DependencyPrefetcher prefetcher;
+    /**
+     * Provides feeds piece by piece while they are generated;
+     * <code>null</code> if streaming is disabled.
+     */
+    private StreamingFeedProvider streamingProvider;
+    /**
+     * Feeds that are currently being streamed, so concurrent requests for the
+     * same feed share a single generation.
+     */
+    private final ConcurrentMap<String, FeedStream> pendingStreams = new ConcurrentHashMap<String, FeedStream>();
+    private final Random random = new Random();
 
-    public FeedCache(final FeedProvider backingProvider) {
+    /**
+     * Creates a feed cache.
+     *
+     * @param backingProvider Provides feeds that are not cached yet or
+     * outdated.
+     * @param refreshExecutor Executes background updates of outdated feeds.
+     */
+    public FeedCache(FeedProvider backingProvider, Executor refreshExecutor) {
+        this(backingProvider, refreshExecutor, 10, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a feed cache.
+     *
+     * @param backingProvider Provides feeds that are not cached yet or
+     * outdated.
+     * @param refreshExecutor Executes background updates of outdated feeds.
+     * @param refreshInterval The time after which cached feeds are outdated.
+     * @param unit The unit of <code>refreshInterval</code>.
+     */
+    public FeedCache(final FeedProvider backingProvider, final Executor refreshExecutor, long refreshInterval, TimeUnit unit) {
+        this.backingProvider = checkNotNull(backingProvider);
+        this.refreshInterval = unit.toMillis(refreshInterval);
+        checkNotNull(refreshExecutor);
         cache = CacheBuilder.newBuilder()
                 .maximumSize(1000)
-                .expireAfterWrite(10, TimeUnit.MINUTES)
+                .recordStats()
                 .build(
-                        new CacheLoader<String, String>() {
+                        new CacheLoader<String, CachedResponse>() {
+                            @Override
+                            public CachedResponse load(String key) throws Exception {
+                                TraceEvent event = TraceEvent.begin(TraceEvent.Kind.CACHE_LOAD).artifact(key);
+                                try {
+                                    String feed = backingProvider.getFeed(key);
+                                    if (prefetcher != null) {
+                                        prefetcher.feedLoaded(key, feed);
+                                    }
+                                    event.bytes(feed.length()).succeeded();
+                                    long feedTime = getFeedTime(key);
+                                    return new CachedResponse(feed, "application/xml",
+                                            feedTime, nextRefreshTime(feedTime));
+                                } finally {
+                                    event.commit();
+                                }
+                            }
+
                             @Override
-                            public String load(String key) throws Exception {
-                                return backingProvider.getFeed(key);
+                            public ListenableFuture<CachedResponse> reload(final String key, final CachedResponse oldValue) throws Exception {
+                                ListenableFutureTask<CachedResponse> task = ListenableFutureTask.create(new Callable<CachedResponse>() {
+                                    @Override
+                                    public CachedResponse call() throws Exception {
+                                        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.CACHE_LOAD).artifact(key);
+                                        try {
+                                            String feed = backingProvider.updateFeed(key, oldValue.getContent());
+                                            event.bytes(feed.length()).outcome("refresh");
+                                            return oldValue.replace(feed, nextRefreshTime());
+                                        } catch (Exception ex) {
+                                            // Keeps serving the outdated feed without retrying on every request
+                                            CachedResponse retry = oldValue.retryLater(nextRetryTime(oldValue.getFailedUpdates()));
+                                            if (isTooStale(retry)) {
+                                                LOGGER.error("Unable to update feed for " + key + " (attempt " + retry.getFailedUpdates() + "), still serving feed outdated since " + new Date(retry.getOutdatedSince()), ex);
+                                            } else {
+                                                LOGGER.warn("Unable to update feed for " + key + " (attempt " + retry.getFailedUpdates() + ")", ex);
+                                            }
+                                            event.outcome("refresh-failed");
+                                            return retry;
+                                        } finally {
+                                            event.commit();
+                                        }
+                                    }
+                                });
+                                refreshExecutor.execute(task);
+                                return task;
                             }
                         });
     }
 
+    /**
+     * Enables caching failures for artifacts that do not exist or have
+     * invalid metadata, so repeated requests for them do not cause upstream
+     * requests.
+     *
+     * @param maximumSize The maximum number of failures to keep.
+     * @param timeToLive The time after which failures are retried.
+     * @param unit The unit of <code>timeToLive</code>.
+     * @return The {@link FeedCache} instance for calling further methods in a
+     * fluent fashion.
+     */
+    public FeedCache enableNegativeCaching(long maximumSize, long timeToLive, TimeUnit unit) {
+        this.negativeCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(timeToLive, unit)
+                .build();
+        return this;
+    }
+
+    /**
+     * Sets how long outdated feeds are served while updating them keeps
+     * failing before further failures are logged as errors instead of
+     * warnings. The outdated feed is still served afterwards, since it is
+     * only replaced by a successful update. Defaults to one day.
+     *
+     * @param maxStaleness The time after which a feed should have been
+     * updated at which failures are reported as errors.
+     * @param unit The unit of <code>maxStaleness</code>.
+     * @return The {@link FeedCache} instance for calling further methods in a
+     * fluent fashion.
+     */
+    public FeedCache reportStaleness(long maxStaleness, TimeUnit unit) {
+        this.maxStaleness = unit.toMillis(maxStaleness);
+        return this;
+    }
+
+    /**
+     * Enables loading feeds requested via {@link #getResponseAsync(String)}
+     * on a separate executor. Otherwise they are loaded on the calling thread.
+     *
+     * @param executor Executes loads of feeds that are not cached yet.
+     * @return The {@link FeedCache} instance for calling further methods in a
+     * fluent fashion.
+     */
+    public FeedCache enableAsyncLoading(ExecutorService executor) {
+        this.loadExecutor = MoreExecutors.listeningDecorator(executor);
+        return this;
+    }
+
+    /**
+     * Enables generating the feeds of dependencies in the background after a
+     * feed has been generated.
+     *
+     * @param serviceURL The URL of this service.
+     * @param executor Runs prefetching. Should use a bounded queue and reject
+     * tasks when it is full.
+     * @param maxDepth The maximum number of dependency levels to prefetch.
+     * @param permitsPerSecond The maximum number of feeds prefetched per
+     * second.
+     * @return The {@link FeedCache} instance for calling further methods in a
+     * fluent fashion.
+     */
+    public FeedCache enablePrefetching(URL serviceURL, Executor executor, int maxDepth, double permitsPerSecond) {
+        this.prefetcher = new DependencyPrefetcher(this, serviceURL, executor, maxDepth, permitsPerSecond);
+        return this;
+    }
+
+    /**
+     * Enables streaming feeds that are not cached yet via
+     * {@link #getFeedStream(String)}.
+     *
+     * @return The {@link FeedCache} instance for calling further methods in a
+     * fluent fashion.
+     * @throws IllegalStateException The backing provider does not support
+     * streaming.
+     */
+    public FeedCache enableStreaming() {
+        checkState(backingProvider instanceof StreamingFeedProvider, "backing provider does not support streaming");
+        this.streamingProvider = (StreamingFeedProvider) backingProvider;
+        return this;
+    }
+
+    /**
+     * Starts generating a feed that is not cached yet on the load executor,
+     * or joins a generation that is already being streamed. The feed is
+     * cached once it is complete.
+     *
+     * @return <code>null</code> if streaming is disabled or the feed is
+     * already cached or being loaded without streaming; use
+     * {@link #getResponseAsync(String)} instead.
+     */
+    public FeedStream getFeedStream(final String artifactPath) {
+        FeedStream stream = pendingStreams.get(artifactPath);
+        if (stream != null || streamingProvider == null || isCached(artifactPath)) {
+            return stream;
+        }
+        final SettableFuture<CachedResponse> result = SettableFuture.create();
+        if (pendingLoads.putIfAbsent(artifactPath, result) != null) {
+            return pendingStreams.get(artifactPath);
+        }
+
+        final FeedStream newStream = new FeedStream();
+        pendingStreams.put(artifactPath, newStream);
+        try {
+            loadExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TraceEvent event = TraceEvent.begin(TraceEvent.Kind.CACHE_LOAD).artifact(artifactPath);
+                    try {
+                        String feed = streamingProvider.writeFeed(artifactPath, newStream);
+                        event.bytes(feed.length()).outcome("stream");
+                        if (prefetcher != null) {
+                            prefetcher.feedLoaded(artifactPath, feed);
+                        }
+                        long feedTime = getFeedTime(artifactPath);
+                        CachedResponse response = new CachedResponse(feed, "application/xml",
+                                feedTime, nextRefreshTime(feedTime));
+                        cache.put(artifactPath, response);
+                        newStream.complete();
+                        result.set(response);
+                    } catch (Exception ex) {
+                        rememberFailure(artifactPath, ex);
+                        newStream.fail(ex);
+                        result.setException(ex);
+                    } finally {
+                        pendingStreams.remove(artifactPath, newStream);
+                        pendingLoads.remove(artifactPath, result);
+                        event.commit();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            newStream.fail(ex);
+            result.setException(ex);
+            pendingStreams.remove(artifactPath, newStream);
+            pendingLoads.remove(artifactPath, result);
+        }
+        return newStream;
+    }
+
+    /**
+     * Returns statistics about lookups, loads and evictions of cached feeds.
+     * Lookups include checks made by background tasks such as prefetching.
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    /**
+     * Returns the number of cached feeds.
+     */
+    public long getSize() {
+        return cache.size();
+    }
+
+    /**
+     * Determines whether a feed or its failure is cached or currently being
+     * loaded.
+     */
+    boolean isCached(String artifactPath) {
+        return cache.getIfPresent(artifactPath) != null
+                || pendingLoads.containsKey(artifactPath)
+                || (negativeCache != null && negativeCache.getIfPresent(artifactPath) != null);
+    }
+
+    @Override
+    public ListenableFuture<CachedResponse> getResponseAsync(String artifactPath) {
+        return getResponseAsync(artifactPath, loadExecutor);
+    }
+
+    /**
+     * Provides a Zero Install feed like {@link #getResponseAsync(String)}, but
+     * loads it on a specific executor if it is neither cached nor being loaded
+     * yet.
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @param executor Executes the load instead of the load executor.
+     * @return The cached feed once it is available.
+     */
+    ListenableFuture<CachedResponse> getResponseAsync(final String artifactPath, ListeningExecutorService executor) {
+        if (negativeCache != null) {
+            Exception failure = negativeCache.getIfPresent(artifactPath);
+            if (failure != null) {
+                return Futures.immediateFailedFuture(failure);
+            }
+        }
+        CachedResponse response = cache.getIfPresent(artifactPath);
+        if (response != null) {
+            if (response.isExpired()) {
+                cache.refresh(artifactPath);
+            }
+            return Futures.immediateFuture(response);
+        }
+
+        ListenableFuture<CachedResponse> pending = pendingLoads.get(artifactPath);
+        if (pending != null) {
+            return pending;
+        }
+        final SettableFuture<CachedResponse> result = SettableFuture.create();
+        pending = pendingLoads.putIfAbsent(artifactPath, result);
+        if (pending != null) {
+            return pending;
+        }
+
+        try {
+            result.setFuture(executor.submit(new Callable<CachedResponse>() {
+                @Override
+                public CachedResponse call() throws Exception {
+                    return getResponse(artifactPath);
+                }
+            }));
+        } catch (RejectedExecutionException ex) {
+            result.setException(ex);
+        }
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                pendingLoads.remove(artifactPath, result);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
     @Override
-    public String getFeed(final String artifactPath) throws IOException, SAXException, ModelBuildingException {
+    public String getFeed(String artifactPath) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        return getResponse(artifactPath).getContent();
+    }
+
+    /**
+     * Provides a Zero Install feed for a specific Maven artifact along with
+     * HTTP validators for it.
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @return The cached feed. Expires when the next update is due.
+     * @throws IOException Download of one the Maven source files failed.
+     * @throws SAXException Parsing of one the Maven source files failed.
+     * @throws XPathExpressionException Maven metadata is malformed.
+     * @throws ModelBuildingException Maven source model is inconsistent.
+     */
+    public CachedResponse getResponse(String artifactPath) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        if (negativeCache != null) {
+            Exception failure = negativeCache.getIfPresent(artifactPath);
+            if (failure != null) {
+                throw rethrow(failure);
+            }
+        }
+
+        CachedResponse response;
         try {
-            return cache.get(artifactPath);
+            response = cache.get(artifactPath);
         } catch (ExecutionException ex) {
-            propagateIfInstanceOf(ex.getCause(), IOException.class);
-            propagateIfInstanceOf(ex.getCause(), SAXException.class);
-            propagateIfInstanceOf(ex.getCause(), ModelBuildingException.class);
-            throw propagate(ex);
+            rememberFailure(artifactPath, ex.getCause());
+            throw rethrow(ex.getCause());
         } catch (UncheckedExecutionException ex) {
-            propagateIfInstanceOf(ex.getCause(), IOException.class);
-            propagateIfInstanceOf(ex.getCause(), SAXException.class);
-            propagateIfInstanceOf(ex.getCause(), ModelBuildingException.class);
-            throw ex;
+            throw rethrow(ex.getCause());
+        }
+
+        if (response.isExpired()) {
+            // Does nothing if an update is already running
+            cache.refresh(artifactPath);
         }
+        return response;
+    }
+
+    @Override
+    public String updateFeed(String artifactPath, String previousFeed) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        String feed = backingProvider.updateFeed(artifactPath, previousFeed);
+        CachedResponse previous = cache.getIfPresent(artifactPath);
+        cache.put(artifactPath, (previous == null)
+                ? new CachedResponse(feed, "application/xml", System.currentTimeMillis(), nextRefreshTime())
+                : previous.replace(feed, nextRefreshTime()));
+        return feed;
+    }
+
+    /**
+     * Determines whether a feed has been outdated for so long that failing
+     * to update it needs attention.
+     */
+    private boolean isTooStale(CachedResponse response) {
+        return response.getFailedUpdates() > 0
+                && System.currentTimeMillis() - response.getOutdatedSince() > maxStaleness;
+    }
+
+    /**
+     * Adds a failure to the negative cache if it is not expected to go away
+     * on retry.
+     */
+    private void rememberFailure(String artifactPath, Throwable failure) {
+        if (negativeCache != null && (failure instanceof FileNotFoundException
+                || failure instanceof SAXException
+                || failure instanceof XPathExpressionException)) {
+            negativeCache.put(artifactPath, (Exception) failure);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable failure) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        propagateIfInstanceOf(failure, IOException.class);
+        propagateIfInstanceOf(failure, SAXException.class);
+        propagateIfInstanceOf(failure, XPathExpressionException.class);
+        propagateIfInstanceOf(failure, ModelBuildingException.class);
+        throw propagate(failure);
+    }
+
+    /**
+     * Returns the time a feed just provided by the backing provider was
+     * generated. Feeds read from a {@link StoredFeedProvider} may be older
+     * than the current time.
+     */
+    private long getFeedTime(String artifactPath) {
+        long now = System.currentTimeMillis();
+        if (backingProvider instanceof StoredFeedProvider) {
+            long feedTime = ((StoredFeedProvider) backingProvider).getFeedTime(artifactPath);
+            if (feedTime >= 0 && feedTime < now) {
+                return feedTime;
+            }
+        }
+        return now;
+    }
+
+    /**
+     * Returns the time at which a failed update of a feed should be retried.
+     * The delay grows exponentially with the number of failures.
+     *
+     * @param failedUpdates The number of consecutive failures so far.
+     */
+    private long nextRetryTime(int failedUpdates) {
+        long delay = RETRY_DELAY << Math.min(failedUpdates, 20);
+        double jitter = random.nextDouble() * REFRESH_JITTER;
+        return System.currentTimeMillis() + (long) (Math.min(delay, Math.max(refreshInterval, RETRY_DELAY)) * (1 - jitter));
+    }
+
+    /**
+     * Returns the time at which a feed generated now should be updated.
+     */
+    private long nextRefreshTime() {
+        return nextRefreshTime(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the time at which a feed should be updated. Feeds that are
+     * already outdated expire immediately, so they are served once and then
+     * updated in the background.
+     *
+     * @param feedTime The time the feed was generated in milliseconds since
+     * the epoch.
+     */
+    private long nextRefreshTime(long feedTime) {
+        double jitter = random.nextDouble() * REFRESH_JITTER;
+        return feedTime + (long) (refreshInterval * (1 - jitter));
     }
 }
@@ -1,26 +1,57 @@
 package net.zeroinstall.pom2feed.service;
 
+import com.google.common.base.CharMatcher;
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.*;
+import static com.google.common.base.Throwables.propagate;
+import com.google.common.cache.*;
+import com.google.common.hash.*;
 import static com.google.common.collect.Lists.newArrayList;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.SettableFuture;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import javax.xml.xpath.XPathExpressionException;
-import net.zeroinstall.model.InterfaceDocument;
+import net.zeroinstall.model.*;
 import net.zeroinstall.pom2feed.core.*;
 import static net.zeroinstall.pom2feed.core.MavenUtils.*;
 import static net.zeroinstall.pom2feed.core.UrlUtils.*;
+import static net.zeroinstall.pom2feed.service.GenerationMetrics.Stage.*;
 import static net.zeroinstall.publish.FeedUtils.getFeedString;
 import org.apache.maven.model.*;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.model.building.*;
 import org.apache.maven.model.resolution.*;
+import org.apache.xmlbeans.*;
 import org.slf4j.*;
 import org.xml.sax.SAXException;
 
 /**
  * Generates Zero Install feeds for Maven artifacts on demand.
  */
-public class FeedGenerator implements FeedProvider {
+public class FeedGenerator implements FeedProvider, StreamingFeedProvider {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(FeedGenerator.class);
+    /**
+     * The {@link ModelCache} tag used for effective models.
+     */
+    private final static String EFFECTIVE_MODEL_TAG = "effective";
+    /**
+     * IDs of profiles that are never activated when building models.
+     */
+    private final static List<String> INACTIVE_PROFILE_IDS = newArrayList("java-1.5-detected", "jdk7", "jdk8");
+    /**
+     * Separates the signature block from the signed feed.
+     */
+    private final static String SIGNATURE_START = "\n<!-- Base64 Signature\n";
     /**
      * The base URL of the Maven repository used to provide binaries.
      */
@@ -34,6 +65,73 @@ public class FeedGenerator implements FeedProvider {
      * The name of the key to use for GnuPG signing.
      */
     private final String gnuPGKey;
+    /**
+     * Signs generated feeds. <code>null</code> if feeds are not signed.
+     */
+    private FeedSigner signer;
+    /**
+     * Builds effective Maven models. Shared between all requests.
+     */
+    private final ModelBuilder modelBuilder = new DefaultModelBuilderFactory().newInstance();
+    /**
+     * Caches raw and effective Maven models of released versions across
+     * requests.
+     */
+    private final ModelCache modelCache = new SharedModelCache(10000);
+    /**
+     * The versioning metadata used for the most recently generated feed of
+     * each artifact. Used to make conditional requests for metadata.
+     */
+    private final Cache<String, RememberedMetadata> metadataCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+    /**
+     * The signature of the most recently generated feed of each artifact.
+     * Reused if the feed is generated again without changes and the signing
+     * key did not change since.
+     */
+    private final Cache<String, FeedSignature> signatureCache = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .build();
+    /**
+     * Executes per-version resolution tasks. <code>null</code> if versions are
+     * resolved sequentially.
+     */
+    private ExecutorService versionExecutor;
+    /**
+     * The maximum number of versions of a single feed resolved concurrently.
+     */
+    private int versionConcurrency = 1;
+    /**
+     * Reads models for implementations without the full model builder.
+     * <code>null</code> if only the full model builder is used.
+     */
+    private LightweightModelReader lightweightModelReader;
+    /**
+     * Indicates whether models read by {@link #lightweightModelReader} are
+     * compared against the full model builder instead of being used directly.
+     */
+    private boolean shadowCompare;
+    /**
+     * Indicates whether previously generated feeds are updated by only adding
+     * new versions rather than being regenerated from scratch.
+     */
+    private boolean incrementalUpdates;
+    /**
+     * Persists implementations of released versions. <code>null</code> if
+     * implementations are always built from scratch.
+     */
+    private ImplementationStore implementationStore;
+    /**
+     * Remembers versions that recently failed so they are skipped.
+     * <code>null</code> if failed versions are retried on every generation.
+     */
+    private FailureMemo failureMemo;
+    /**
+     * Records generation times and upstream requests. <code>null</code> if
+     * metrics are not recorded.
+     */
+    private GenerationMetrics metrics;
 
     /**
      * Creates a feed generator.
@@ -48,78 +146,862 @@ public class FeedGenerator implements FeedProvider {
         this.mavenRepository = ensureSlashEnd(mavenRepository);
         this.pom2feedService = ensureSlashEnd(pom2feedService);
         this.gnuPGKey = gnuPGKey;
+        this.signer = (gnuPGKey == null) ? null : new GnuPGSigner(gnuPGKey);
+    }
+
+    /**
+     * Enables resolving the versions of a feed in parallel. The order of the
+     * implementations in the generated feeds is not affected.
+     *
+     * @param executor Executes the per-version resolution tasks. May be shared
+     * between multiple feed generators.
+     * @param concurrency The maximum number of versions of a single feed to
+     * resolve concurrently.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     */
+    public FeedGenerator enableParallelVersions(ExecutorService executor, int concurrency) {
+        checkArgument(concurrency > 0, "invalid concurrency: %s", concurrency);
+        this.versionExecutor = checkNotNull(executor);
+        this.versionConcurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Enables reading the models used for implementations with a lightweight
+     * POM reader that only resolves parent inheritance and property
+     * interpolation. POMs the reader cannot handle are passed to the full
+     * Maven model builder.
+     *
+     * @param shadowCompare <code>true</code> to run both the lightweight
+     * reader and the full model builder, log any differences in the resulting
+     * implementations and use the full model builder's result.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     */
+    public FeedGenerator enableLightweightModels(boolean shadowCompare) {
+        this.lightweightModelReader = new LightweightModelReader(mavenRepository, modelCache, INACTIVE_PROFILE_IDS);
+        this.shadowCompare = shadowCompare;
+        return this;
+    }
+
+    /**
+     * Enables updating previously generated feeds by only resolving versions
+     * that were added since. Metadata and existing implementations are kept
+     * from the previous feed.
+     *
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     */
+    public FeedGenerator enableIncrementalUpdates() {
+        this.incrementalUpdates = true;
+        return this;
+    }
+
+    /**
+     * Enables persisting the implementations built for released versions so
+     * they can be reused by later feeds without contacting the Maven
+     * repository again.
+     *
+     * @param directory The directory containing the stored implementations.
+     * Created if it does not exist yet. May be shared between feed
+     * generators.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     * @throws IOException The directory could not be created.
+     */
+    public FeedGenerator enableImplementationStore(File directory) throws IOException {
+        this.implementationStore = new ImplementationStore(directory, mavenRepository + " " + pom2feedService);
+        return this;
+    }
+
+    /**
+     * Enables skipping versions that recently failed to be added to a feed
+     * because their POM or artifact is broken or missing.
+     *
+     * @param failureMemo Remembers the failed versions. May be shared between
+     * feed generators.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     */
+    public FeedGenerator enableFailureMemo(FailureMemo failureMemo) {
+        this.failureMemo = checkNotNull(failureMemo);
+        return this;
+    }
+
+    /**
+     * Enables recording the time spent in each stage of feed generation and
+     * the upstream requests made for each feed.
+     *
+     * @param metrics Records the metrics. May be shared between feed
+     * generators.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     */
+    public FeedGenerator enableMetrics(GenerationMetrics metrics) {
+        this.metrics = checkNotNull(metrics);
+        return this;
+    }
+
+    /**
+     * Signs feeds with a specific signer instead of running an external GnuPG
+     * process with the key passed to the constructor.
+     *
+     * @param signer Creates the signatures. May be shared between feed
+     * generators.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     */
+    public FeedGenerator enableSigning(FeedSigner signer) {
+        this.signer = checkNotNull(signer);
+        return this;
+    }
+
+    /**
+     * Enables signing feeds within the JVM instead of running an external
+     * GnuPG process for each feed. GnuPG is still used if signing within the
+     * JVM fails.
+     *
+     * @param keyring The secret keyring containing the GnuPG signing key, as
+     * exported by <code>gpg --export-secret-keys</code>.
+     * @param passphrase The passphrase protecting the key; may be
+     * <code>null</code> for unprotected keys.
+     * @param workers Computes the signatures. May be shared between feed
+     * generators.
+     * @return The {@link FeedGenerator} instance for calling further methods
+     * in a fluent fashion.
+     * @throws IOException The keyring could not be read or the key could not
+     * be unlocked.
+     */
+    public FeedGenerator enableInProcessSigning(File keyring, char[] passphrase, Executor workers) throws IOException {
+        checkState(gnuPGKey != null, "no GnuPG key set");
+        return enableSigning(new OpenPGPSigner(keyring, gnuPGKey, passphrase, workers, new GnuPGSigner(gnuPGKey)));
     }
 
     @Override
     public String getFeed(final String artifactPath) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
-        MavenMetadata metadata = getMetadata(artifactPath);
-        InterfaceDocument feed = buildFeed(metadata);
-        return getFeedString(feed, gnuPGKey);
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.FEED_GENERATION).artifact(artifactPath);
+        HttpTransport.Usage previousUsage = startUsage();
+        try {
+            MavenMetadata metadata = getMetadata(artifactPath, getRememberedMetadata(artifactPath));
+            AtomicLong retryTime = new AtomicLong(Long.MAX_VALUE);
+            InterfaceDocument feed = buildFeed(metadata, retryTime);
+            String feedString = appendSignature(artifactPath, serialize(feed), null);
+            rememberMetadata(artifactPath, metadata, retryTime.get());
+            event.bytes(feedString.length()).succeeded();
+            return feedString;
+        } finally {
+            finishUsage(previousUsage);
+            event.commit();
+        }
+    }
+
+    @Override
+    public String writeFeed(String artifactPath, FeedStream stream) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.FEED_GENERATION).artifact(artifactPath);
+        HttpTransport.Usage previousUsage = startUsage();
+        try {
+            MavenMetadata metadata = getMetadata(artifactPath, getRememberedMetadata(artifactPath));
+            FeedParts parts = new FeedParts(stream);
+            AtomicLong retryTime = new AtomicLong(Long.MAX_VALUE);
+            Model metadataModel = getMetadataModel(metadata);
+            long startTime = System.nanoTime();
+            final StreamingFeedBuilder feedBuilder = new StreamingFeedBuilder(mavenRepository, pom2feedService, parts)
+                    .enableLaxDependencyVersions()
+                    .writeHeader(metadataModel, getServiceUrl(pom2feedService, metadata.getGroupId(), metadata.getArtifactId()));
+            recordStage(ASSEMBLY, startTime);
+            addImplementationsToFeed(metadata, Collections.<String, Implementation>emptyMap(), new ImplementationTarget() {
+                @Override
+                public void addImplementation(Implementation implementation) throws IOException {
+                    feedBuilder.addImplementation(implementation);
+                }
+
+                @Override
+                public void addRemoteImplementation(Model model, long size, String hash) throws IOException {
+                    feedBuilder.addRemoteImplementation(model, size, hash);
+                }
+            }, retryTime);
+            feedBuilder.finish();
+            // The stream keeps all parts for clients joining late, so the feed is assembled from there
+            String unsigned = stream.getContent();
+            String feedString = appendSignature(artifactPath, unsigned, null);
+            if (feedString.length() > unsigned.length()) {
+                parts.write(feedString.substring(unsigned.length()).getBytes(UTF_8));
+                parts.flush();
+            }
+
+            rememberMetadata(artifactPath, metadata, retryTime.get());
+            event.bytes(feedString.length()).succeeded();
+            return feedString;
+        } finally {
+            finishUsage(previousUsage);
+            event.commit();
+        }
     }
 
-    private MavenMetadata getMetadata(String artifactPath) throws IOException, SAXException, XPathExpressionException {
-        if (mavenRepository.getHost().equals("repo.maven.apache.org")) {
-            return MavenMetadata.query(new URL("http://search.maven.org/solrsearch/"), artifactPath);
+    @Override
+    public String updateFeed(String artifactPath, String previousFeed) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.FEED_GENERATION).artifact(artifactPath);
+        HttpTransport.Usage previousUsage = startUsage();
+        try {
+            RememberedMetadata remembered = metadataCache.getIfPresent(artifactPath);
+            MavenMetadata metadata = getMetadata(artifactPath, (remembered == null) ? null : remembered.metadata);
+            if (remembered != null && metadata == remembered.metadata && System.currentTimeMillis() < remembered.retryTime) {
+                // Metadata not modified since the last feed was generated and no skipped version is due for a retry
+                event.bytes(previousFeed.length()).outcome("not-modified");
+                return previousFeed;
+            }
+
+            AtomicLong retryTime = new AtomicLong(Long.MAX_VALUE);
+            String feed = incrementalUpdates
+                    ? updateFeed(artifactPath, metadata, previousFeed, retryTime)
+                    : appendSignature(artifactPath, serialize(buildFeed(metadata, retryTime)), previousFeed);
+            rememberMetadata(artifactPath, metadata, retryTime.get());
+            event.bytes(feed.length()).outcome(feed.equals(previousFeed) ? "unchanged" : "success");
+            return feed;
+        } finally {
+            finishUsage(previousUsage);
+            event.commit();
+        }
+    }
+
+    /**
+     * Remembers the metadata a feed was generated from, so the next update
+     * can skip generation if the metadata was not modified since and no
+     * skipped version is due for a retry. Metadata of feeds that lack versions
+     * due to transient errors is forgotten instead, so the next update retries
+     * these versions.
+     *
+     * @param retryTime The time skipped versions should be retried in
+     * milliseconds since the epoch; <code>0</code> if versions were skipped
+     * due to transient errors; {@link Long#MAX_VALUE} if no versions were
+     * skipped.
+     */
+    private void rememberMetadata(String artifactPath, MavenMetadata metadata, long retryTime) {
+        if (retryTime == 0) {
+            metadataCache.invalidate(artifactPath);
         } else {
-            return MavenMetadata.load(new URL(mavenRepository, artifactPath + "maven-metadata.xml"));
+            metadataCache.put(artifactPath, new RememberedMetadata(metadata, retryTime));
+        }
+    }
+
+    /**
+     * Returns the metadata the most recently generated feed of an artifact was
+     * generated from; <code>null</code> if unknown.
+     */
+    private MavenMetadata getRememberedMetadata(String artifactPath) {
+        RememberedMetadata remembered = metadataCache.getIfPresent(artifactPath);
+        return (remembered == null) ? null : remembered.metadata;
+    }
+
+    /**
+     * Lowers the time skipped versions should be retried.
+     */
+    private static void lowerRetryTime(AtomicLong retryTime, long time) {
+        long current;
+        do {
+            current = retryTime.get();
+        } while (time < current && !retryTime.compareAndSet(current, time));
+    }
+
+    /**
+     * Starts attributing the upstream requests of the current thread to a
+     * new feed.
+     *
+     * @return The usage to restore using {@link #finishUsage}.
+     */
+    private static HttpTransport.Usage startUsage() {
+        return HttpTransport.attachUsage(new HttpTransport.Usage());
+    }
+
+    /**
+     * Records the upstream requests made for a feed started with
+     * {@link #startUsage()}.
+     */
+    private void finishUsage(HttpTransport.Usage previousUsage) {
+        HttpTransport.Usage usage = HttpTransport.attachUsage(previousUsage);
+        if (metrics != null && usage != null) {
+            metrics.recordUpstreamUsage(usage);
+        }
+    }
+
+    /**
+     * Updates a previously generated feed by only resolving new versions.
+     *
+     * @param retryTime Lowered to the time skipped versions should be retried.
+     */
+    private String updateFeed(String artifactPath, MavenMetadata metadata, String previousFeed, AtomicLong retryTime) throws IOException, ModelBuildingException {
+        InterfaceDocument feed;
+        try {
+            feed = InterfaceDocument.Factory.parse(previousFeed);
+        } catch (XmlException ex) {
+            LOGGER.warn("Unable to parse previous feed for " + artifactPath, ex);
+            return appendSignature(artifactPath, serialize(buildFeed(metadata, retryTime)), previousFeed);
+        }
+
+        Map<String, Implementation> existing = new HashMap<String, Implementation>();
+        for (Implementation implementation : feed.getInterface().getImplementationArray()) {
+            existing.put(implementation.getId(), (Implementation) implementation.copy());
+        }
+        if (!metadata.getVersions().containsAll(existing.keySet())) {
+            // Versions were removed, so existing implementations cannot be reused safely
+            return appendSignature(artifactPath, serialize(buildFeed(metadata, retryTime)), previousFeed);
+        }
+        if (existing.keySet().containsAll(metadata.getVersions())) {
+            return previousFeed;
+        }
+
+        // Keep metadata, but rebuild implementation list in metadata order
+        removeDocumentMarkup(feed);
+        while (feed.getInterface().sizeOfImplementationArray() > 0) {
+            feed.getInterface().removeImplementation(0);
+        }
+        FeedBuilder feedBuilder = new FeedBuilder(mavenRepository, pom2feedService, feed).enableLaxDependencyVersions();
+        addImplementationsToFeed(metadata, existing, toTarget(feedBuilder), retryTime);
+        return appendSignature(artifactPath, serialize(feedBuilder.getDocument()), previousFeed);
+    }
+
+    /**
+     * Serializes a complete feed without a signature.
+     */
+    private String serialize(InterfaceDocument feed) throws IOException {
+        long startTime = System.nanoTime();
+        try {
+            return getFeedString(feed, null);
+        } finally {
+            recordStage(SERIALIZATION, startTime);
+        }
+    }
+
+    private void recordStage(GenerationMetrics.Stage stage, long startTime) {
+        if (metrics != null) {
+            metrics.recordStage(stage, startTime);
+        }
+    }
+
+    /**
+     * Appends a signature block to a serialized feed in the same format as
+     * {@link net.zeroinstall.publish.FeedUtils#getFeedString}. The signature
+     * block of the previous feed is reused if the feed did not change and it
+     * was signed with the current key, so unchanged feeds stay
+     * byte-identical until the key changes.
+     *
+     * @param feed The serialized feed without a signature.
+     * @param previousFeed The previously generated feed including its
+     * signature; may be <code>null</code>.
+     * @return <code>feed</code> itself if feeds are not signed.
+     */
+    private String appendSignature(String artifactPath, String feed, String previousFeed) throws IOException {
+        if (signer == null) {
+            return feed;
+        }
+
+        HashCode hash = Hashing.sha256().hashString(feed, UTF_8);
+        long keyId = signer.getKeyId();
+        FeedSignature previous = signatureCache.getIfPresent(artifactPath);
+        if (previous != null && previous.feedHash.equals(hash) && previous.keyId == keyId) {
+            return feed + previous.block;
+        }
+        if (previousFeed != null) {
+            // The previous feed may have been restored from a store rather than generated by this instance
+            int signatureStart = previousFeed.lastIndexOf(SIGNATURE_START);
+            if (signatureStart >= 0 && previousFeed.substring(0, signatureStart).equals(feed)) {
+                String block = previousFeed.substring(signatureStart);
+                if (isSignedWith(block, keyId)) {
+                    signatureCache.put(artifactPath, new FeedSignature(hash, keyId, block));
+                    return previousFeed;
+                }
+            }
+        }
+
+        // Signatures cover the feed including a trailing line break
+        long startTime = System.nanoTime();
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.SIGNING).artifact(artifactPath).bytes(feed.length() + 1);
+        String signature;
+        try {
+            signature = BaseEncoding.base64().encode(signer.sign(feed + "\n"));
+            event.succeeded();
+        } finally {
+            event.commit();
+        }
+        recordStage(SIGNING, startTime);
+        String block = SIGNATURE_START + signature + "\n-->\n";
+        signatureCache.put(artifactPath, new FeedSignature(hash, keyId, block));
+        return feed + block;
+    }
+
+    /**
+     * Determines whether a signature block was created with a specific key.
+     * Blocks that cannot be parsed are treated as created with another key.
+     */
+    private static boolean isSignedWith(String block, long keyId) {
+        String signature = block.substring(SIGNATURE_START.length(), block.lastIndexOf("\n-->"));
+        try {
+            return OpenPGPSigner.getSignatureKeyId(BaseEncoding.base64().decode(CharMatcher.whitespace().removeFrom(signature))) == keyId;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        } catch (IOException ex) {
+            return false;
         }
     }
 
-    private InterfaceDocument buildFeed(MavenMetadata metadata) throws ModelBuildingException {
+    /**
+     * Removes processing instructions (stylesheets) and comments (signatures)
+     * outside of the root element that were added when a feed was serialized.
+     */
+    private static void removeDocumentMarkup(InterfaceDocument feed) {
+        XmlCursor cursor = feed.newCursor();
+        try {
+            cursor.toNextToken();
+            while (!cursor.isEnddoc()) {
+                if (cursor.isProcinst() || cursor.isComment()) {
+                    cursor.removeXml();
+                } else if (cursor.isStart()) {
+                    cursor.toEndToken();
+                    cursor.toNextToken();
+                } else {
+                    cursor.toNextToken();
+                }
+            }
+        } finally {
+            cursor.dispose();
+        }
+    }
+
+    /**
+     * Retrieves versioning metadata for an artifact.
+     *
+     * @param previous The metadata used for the most recently generated feed;
+     * may be <code>null</code>.
+     * @return <code>previous</code> if the metadata was not modified since.
+     */
+    private MavenMetadata getMetadata(String artifactPath, MavenMetadata previous) throws IOException, SAXException, XPathExpressionException {
+        long startTime = System.nanoTime();
+        try {
+            if (mavenRepository.getHost().equals("repo.maven.apache.org")) {
+                return MavenMetadata.query(new URL("http://search.maven.org/solrsearch/"), artifactPath, previous);
+            } else {
+                return MavenMetadata.load(new URL(mavenRepository, artifactPath + "maven-metadata.xml"), previous);
+            }
+        } finally {
+            recordStage(METADATA, startTime);
+        }
+    }
+
+    /**
+     * Builds a feed containing all versions of an artifact.
+     *
+     * @param retryTime Lowered to the time skipped versions should be retried.
+     */
+    private InterfaceDocument buildFeed(MavenMetadata metadata, AtomicLong retryTime) throws IOException, ModelBuildingException {
+        Model metadataModel = getMetadataModel(metadata);
+        long startTime = System.nanoTime();
         FeedBuilder feedBuilder = new FeedBuilder(mavenRepository, pom2feedService).enableLaxDependencyVersions();
-        addMetadataToFeed(metadata, feedBuilder);
-        addImplementationsToFeed(metadata, feedBuilder);
+        feedBuilder.addMetadata(metadataModel);
+        recordStage(ASSEMBLY, startTime);
+        addImplementationsToFeed(metadata, Collections.<String, Implementation>emptyMap(), toTarget(feedBuilder), retryTime);
 
         InterfaceDocument feed = feedBuilder.getDocument();
         feed.getInterface().setUri(getServiceUrl(pom2feedService, metadata.getGroupId(), metadata.getArtifactId()));
         return feed;
     }
 
-    private void addMetadataToFeed(MavenMetadata metadata, FeedBuilder feedBuilder) throws ModelBuildingException {
-        Model model;
+    /**
+     * Returns the Maven model used for the project-wide metadata of a feed.
+     */
+    private Model getMetadataModel(MavenMetadata metadata) throws ModelBuildingException {
         try {
-            model = getModel(metadata, metadata.getLatestVersion());
+            return getModel(metadata, metadata.getLatestVersion());
         } catch (ModelBuildingException ex) {
             // Fall back to first version if latest version does not work
-            model = getModel(metadata, metadata.getVersions().get(0));
+            return getModel(metadata, metadata.getVersions().get(0));
         }
-
-        feedBuilder.addMetadata(model);
     }
 
-    private void addImplementationsToFeed(MavenMetadata metadata, FeedBuilder feedBuilder) {
-        for (String version : metadata.getVersions()) {
+    /**
+     * Adds implementations for all versions of an artifact to a feed.
+     *
+     * @param existing Implementations that were already built, keyed by
+     * version. These are reused instead of being resolved again.
+     * @param target Receives the implementations in version order.
+     * @param retryTime Lowered to the time skipped versions should be retried.
+     */
+    private void addImplementationsToFeed(MavenMetadata metadata, Map<String, Implementation> existing, ImplementationTarget target, AtomicLong retryTime) throws IOException {
+        if (versionExecutor == null) {
+            for (String version : metadata.getVersions()) {
+                addImplementation(target, resolveVersion(metadata, version, existing, retryTime), retryTime);
+            }
+        } else {
+            List<SettableFuture<ResolvedVersion>> results = resolveVersionsInParallel(metadata, existing, retryTime);
             try {
-                feedBuilder.addRemoteImplementation(getModel(metadata, version));
-            } catch (ModelBuildingException ex) {
-                LOGGER.trace(null, ex);
-            } catch (IOException ex) {
-                LOGGER.trace(null, ex);
-            } catch (IllegalArgumentException ex) {
-                LOGGER.trace(null, ex);
+                for (SettableFuture<ResolvedVersion> result : results) {
+                    addImplementation(target, getUninterruptibly(result), retryTime);
+                }
+            } catch (ExecutionException ex) {
+                throw propagate(ex.getCause());
+            } finally {
+                // Stop pending resolutions if the feed could not be completed
+                for (SettableFuture<ResolvedVersion> result : results) {
+                    result.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts resolving all versions of an artifact using at most
+     * {@link #versionConcurrency} tasks.
+     *
+     * @param retryTime Lowered to the time skipped versions should be retried.
+     * @return The resolution results in the same order as
+     * {@link MavenMetadata#getVersions()}.
+     */
+    private List<SettableFuture<ResolvedVersion>> resolveVersionsInParallel(final MavenMetadata metadata, final Map<String, Implementation> existing, final AtomicLong retryTime) {
+        final List<String> versions = metadata.getVersions();
+        final List<SettableFuture<ResolvedVersion>> results = newArrayList();
+        for (int i = 0; i < versions.size(); i++) {
+            results.add(SettableFuture.<ResolvedVersion>create());
+        }
+
+        final AtomicInteger nextIndex = new AtomicInteger();
+        // Attribute the upstream requests of the workers to the feed
+        final HttpTransport.Usage usage = HttpTransport.getAttachedUsage();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                HttpTransport.Usage previousUsage = HttpTransport.attachUsage(usage);
+                try {
+                    int i;
+                    while ((i = nextIndex.getAndIncrement()) < versions.size()) {
+                        SettableFuture<ResolvedVersion> result = results.get(i);
+                        if (result.isCancelled()) {
+                            continue;
+                        }
+                        try {
+                            result.set(resolveVersion(metadata, versions.get(i), existing, retryTime));
+                        } catch (RuntimeException ex) {
+                            result.setException(ex);
+                        } catch (Error ex) {
+                            result.setException(ex);
+                        }
+                    }
+                } finally {
+                    HttpTransport.attachUsage(previousUsage);
+                }
+            }
+        };
+        for (int i = 0; i < Math.min(versionConcurrency, versions.size()); i++) {
+            versionExecutor.execute(worker);
+        }
+        return results;
+    }
+
+    /**
+     * Retrieves all information required to add a specific version of an
+     * artifact to a feed.
+     *
+     * @param existing Implementations that were already built, keyed by
+     * version.
+     * @param retryTime Lowered to the time the version should be retried if
+     * it is skipped.
+     * @return <code>null</code> if the version could not be resolved and
+     * should be skipped.
+     */
+    private ResolvedVersion resolveVersion(MavenMetadata metadata, String version, Map<String, Implementation> existing, AtomicLong retryTime) {
+        if (existing.containsKey(version)) {
+            return new ResolvedVersion(existing.get(version));
+        }
+        if (implementationStore != null) {
+            Implementation implementation = implementationStore.get(metadata.getGroupId(), metadata.getArtifactId(), version);
+            if (implementation != null) {
+                return new ResolvedVersion(implementation);
+            }
+        }
+        if (failureMemo != null) {
+            long failureRetryTime = failureMemo.getRetryTime(metadata.getGroupId(), metadata.getArtifactId(), version);
+            if (failureRetryTime > 0) {
+                lowerRetryTime(retryTime, failureRetryTime);
+                return null;
+            }
+        }
+
+        try {
+            Model model = getImplementationModel(metadata, version);
+            URL fileUrl = getArtifactFileUrl(mavenRepository,
+                    model.getGroupId(), model.getArtifactId(), model.getVersion(), model.getPackaging());
+            long startTime = System.nanoTime();
+            long size = getRemoteFileSize(fileUrl);
+            recordStage(HEAD, startTime);
+            startTime = System.nanoTime();
+            String hash = getRemoteWord(new URL(fileUrl.toString() + ".sha1"));
+            recordStage(SHA1, startTime);
+            if (implementationStore == null) {
+                return new ResolvedVersion(model, size, hash);
+            }
+
+            startTime = System.nanoTime();
+            Implementation implementation = buildImplementation(model, size, hash);
+            recordStage(ASSEMBLY, startTime);
+            return new ResolvedVersion(implementationStore.put(metadata.getGroupId(), metadata.getArtifactId(), version,
+                    implementation));
+        } catch (ModelBuildingException ex) {
+            LOGGER.trace(null, ex);
+            recordFailure(metadata.getGroupId(), metadata.getArtifactId(), version, ex, retryTime);
+        } catch (FileNotFoundException ex) {
+            LOGGER.trace(null, ex);
+            recordFailure(metadata.getGroupId(), metadata.getArtifactId(), version, ex, retryTime);
+        } catch (IOException ex) {
+            // Other I/O errors are usually transient, so retry next time
+            LOGGER.trace(null, ex);
+            retryTime.set(0);
+        } catch (IllegalArgumentException ex) {
+            LOGGER.trace(null, ex);
+            recordFailure(metadata.getGroupId(), metadata.getArtifactId(), version, ex, retryTime);
+        }
+        return null;
+    }
+
+    /**
+     * Records a version that could not be added to a feed in the failure
+     * memo.
+     *
+     * @param retryTime Lowered to the time the version should be retried.
+     */
+    private void recordFailure(String groupId, String artifactId, String version, Exception reason, AtomicLong retryTime) {
+        if (failureMemo != null) {
+            failureMemo.recordFailure(groupId, artifactId, version, reason);
+            lowerRetryTime(retryTime, failureMemo.getRetryTime(groupId, artifactId, version));
+        }
+    }
+
+    private void addImplementation(ImplementationTarget target, ResolvedVersion resolved, AtomicLong retryTime) throws IOException {
+        if (resolved == null) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        try {
+            if (resolved.implementation != null) {
+                target.addImplementation(resolved.implementation);
+            } else {
+                target.addRemoteImplementation(resolved.model, resolved.size, resolved.hash);
+            }
+        } catch (IllegalArgumentException ex) {
+            LOGGER.trace(null, ex);
+            if (resolved.model != null) {
+                recordFailure(resolved.model.getGroupId(), resolved.model.getArtifactId(), resolved.model.getVersion(), ex, retryTime);
+            }
+        } finally {
+            recordStage(ASSEMBLY, startTime);
+        }
+    }
+
+    /**
+     * Returns the Maven model used for adding a specific version of an
+     * artifact as an implementation.
+     */
+    private Model getImplementationModel(MavenMetadata metadata, String version) throws ModelBuildingException, IOException {
+        if (lightweightModelReader == null) {
+            return getModel(metadata, version);
+        }
+
+        long startTime = System.nanoTime();
+        Model model = lightweightModelReader.read(metadata.getGroupId(), metadata.getArtifactId(), version);
+        recordStage(MODEL, startTime);
+        if (model == null) {
+            return getModel(metadata, version);
+        } else if (shadowCompare) {
+            Model fullModel = getModel(metadata, version);
+            String expected = getImplementationXml(fullModel);
+            String actual = getImplementationXml(model);
+            if (!expected.equals(actual)) {
+                LOGGER.warn("Lightweight model for " + metadata.getGroupId() + ":" + metadata.getArtifactId() + ":" + version
+                        + " results in a different implementation.\nExpected:\n" + expected + "\nActual:\n" + actual);
             }
+            return fullModel;
+        } else {
+            return model;
         }
     }
 
+    /**
+     * Returns the XML representation of the implementation built from a model
+     * with placeholder file information.
+     */
+    private String getImplementationXml(Model model) {
+        try {
+            return buildImplementation(model, 0, "0").xmlText();
+        } catch (RuntimeException ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * Builds an implementation outside of any feed.
+     *
+     * @throws IllegalArgumentException The model cannot be represented as an
+     * implementation.
+     */
+    private Implementation buildImplementation(Model model, long size, String hash) {
+        return new FeedBuilder(mavenRepository, pom2feedService).enableLaxDependencyVersions()
+                .addRemoteImplementation(model, size, hash)
+                .getDocument().getInterface().getImplementationArray(0);
+    }
+
+    /**
+     * Returns the effective Maven model for a specific version of an artifact.
+     * The returned model may be shared and must not be modified.
+     */
     private Model getModel(MavenMetadata metadata, String version) throws ModelBuildingException {
-        UrlModelSource modelSource = new UrlModelSource(getArtifactFileUrl(mavenRepository,
-                metadata.getGroupId(), metadata.getArtifactId(), version, "pom"));
+        Model model = (Model) modelCache.get(metadata.getGroupId(), metadata.getArtifactId(), version, EFFECTIVE_MODEL_TAG);
+        if (model != null) {
+            return model;
+        }
+
+        URL pomUrl = getArtifactFileUrl(mavenRepository, metadata.getGroupId(), metadata.getArtifactId(), version, "pom");
+        ModelSource modelSource = new TransportModelSource(pomUrl);
         ModelBuildingRequest request = new DefaultModelBuildingRequest()
                 .setModelSource(modelSource)
                 .setModelResolver(new RepositoryModelResolver())
+                .setModelCache(modelCache)
                 .setValidationLevel(ModelBuildingRequest.VALIDATION_LEVEL_MINIMAL)
                 // HACK: Workaround for "Failed to determine Java version for profile XYZ"
-                .setInactiveProfileIds(newArrayList("java-1.5-detected", "jdk7", "jdk8"));
+                .setInactiveProfileIds(INACTIVE_PROFILE_IDS);
+
+        long startTime = System.nanoTime();
+        TraceEvent event = TraceEvent.begin(TraceEvent.Kind.MODEL_BUILD)
+                .artifact(metadata.getGroupId().replace('.', '/') + "/" + metadata.getArtifactId() + "/")
+                .version(version).url(pomUrl);
+        try {
+            model = modelBuilder.build(request).getEffectiveModel();
+            event.succeeded();
+        } finally {
+            recordStage(MODEL, startTime);
+            event.commit();
+        }
+        modelCache.put(metadata.getGroupId(), metadata.getArtifactId(), version, EFFECTIVE_MODEL_TAG, model);
+        return model;
+    }
+
+    /**
+     * Information about a specific version of an artifact required to add it
+     * to a feed. Either a model with file information or an implementation
+     * that was already built.
+     */
+    private static class ResolvedVersion {
+
+        final Model model;
+        final long size;
+        final String hash;
+        final Implementation implementation;
+
+        ResolvedVersion(Model model, long size, String hash) {
+            this.model = model;
+            this.size = size;
+            this.hash = hash;
+            this.implementation = null;
+        }
+
+        ResolvedVersion(Implementation implementation) {
+            this.model = null;
+            this.size = 0;
+            this.hash = null;
+            this.implementation = implementation;
+        }
+    }
+
+    /**
+     * The versioning metadata a feed was generated from along with the time
+     * versions that were skipped should be retried.
+     */
+    private static class RememberedMetadata {
+
+        final MavenMetadata metadata;
+        final long retryTime;
 
-        ModelBuilder builder = new DefaultModelBuilderFactory().newInstance();
-        return builder.build(request).getEffectiveModel();
+        RememberedMetadata(MavenMetadata metadata, long retryTime) {
+            this.metadata = metadata;
+            this.retryTime = retryTime;
+        }
+    }
+
+    /**
+     * The signature block appended to a feed along with a hash of the feed
+     * it covers and the ID of the key it was created with.
+     */
+    private static class FeedSignature {
+
+        final HashCode feedHash;
+        final long keyId;
+        final String block;
+
+        FeedSignature(HashCode feedHash, long keyId, String block) {
+            this.feedHash = feedHash;
+            this.keyId = keyId;
+            this.block = block;
+        }
+    }
+
+    /**
+     * Receives the implementations of a feed that is being built.
+     */
+    private interface ImplementationTarget {
+
+        void addImplementation(Implementation implementation) throws IOException;
+
+        void addRemoteImplementation(Model model, long size, String hash) throws IOException;
+    }
+
+    private static ImplementationTarget toTarget(final FeedBuilder feedBuilder) {
+        return new ImplementationTarget() {
+            @Override
+            public void addImplementation(Implementation implementation) {
+                feedBuilder.addImplementation(implementation);
+            }
+
+            @Override
+            public void addRemoteImplementation(Model model, long size, String hash) {
+                feedBuilder.addRemoteImplementation(model, size, hash);
+            }
+        };
+    }
+
+    /**
+     * Collects the bytes of a feed and passes them on to a feed stream as one
+     * part whenever it is flushed.
+     */
+    private static class FeedParts extends OutputStream {
+
+        final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        final FeedStream stream;
+
+        FeedParts(FeedStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) {
+            pending.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            pending.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (pending.size() > 0) {
+                stream.write(pending.toByteArray());
+                pending.reset();
+            }
+        }
     }
 
     private class RepositoryModelResolver implements ModelResolver {
 
         @Override
         public ModelSource resolveModel(String groupId, String artifactId, String version) throws UnresolvableModelException {
-            return new UrlModelSource(getArtifactFileUrl(mavenRepository,
+            return new TransportModelSource(getArtifactFileUrl(mavenRepository,
                     groupId, artifactId, version, "pom"));
         }
 
@@ -21,4 +21,20 @@ public interface FeedProvider {
      * @throws ModelBuildingException Maven source model is inconsistent.
      */
     String getFeed(String artifactPath) throws IOException, SAXException, XPathExpressionException, ModelBuildingException;
+
+    /**
+     * Provides an up-to-date version of a Zero Install feed that was
+     * previously provided for a specific Maven artifact.
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @param previousFeed The serialized feed data previously provided for the
+     * artifact.
+     * @return The serialized feed data. May be the same as
+     * <code>previousFeed</code> if nothing changed.
+     * @throws IOException Download of one the Maven source files failed.
+     * @throws SAXException Parsing of one the Maven source files failed.
+     * @throws ModelBuildingException Maven source model is inconsistent.
+     */
+    String updateFeed(String artifactPath, String previousFeed) throws IOException, SAXException, XPathExpressionException, ModelBuildingException;
 }
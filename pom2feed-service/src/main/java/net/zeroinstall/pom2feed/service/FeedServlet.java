@@ -1,12 +1,23 @@
 package net.zeroinstall.pom2feed.service;
 
-import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.google.common.base.Strings.*;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.*;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import java.io.*;
+import static java.lang.Boolean.parseBoolean;
+import static java.lang.Double.parseDouble;
+import static java.lang.Integer.parseInt;
 import static java.lang.System.getProperty;
 import java.net.URL;
-import javax.servlet.ServletException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.*;
 import javax.servlet.http.*;
 import javax.xml.xpath.XPathExpressionException;
+import net.zeroinstall.pom2feed.core.HttpTransport;
 import static net.zeroinstall.pom2feed.core.UrlUtils.ensureSlashEnd;
 import static net.zeroinstall.publish.FeedUtils.readAll;
 import net.zeroinstall.publish.GnuPG;
@@ -25,22 +36,63 @@ public class FeedServlet
      * The URL of this service/servlet.
      */
     private final URL serviceURL;
+    /**
+     * The number of seconds clients may reuse static resources without
+     * revalidating them.
+     */
+    private final static long STATIC_MAX_AGE = TimeUnit.DAYS.toSeconds(1);
+    /**
+     * The number of milliseconds an asynchronous feed request waits for the
+     * feed to be generated before responding with 503.
+     */
+    private final static long ASYNC_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
     /**
      * The GnuPG key used to sign feeds.
      */
-    private final String gpgKeyData;
+    private final CachedResponse gpgKeyData;
     /**
      * The XSL stylesheet for feeds.
      */
-    private final String xslData;
+    private final CachedResponse xslData;
     /**
      * The CSS stylesheet for feeds.
      */
-    private final String cssData;
+    private final CachedResponse cssData;
     /**
      * Provides Zero Install feeds for specific Maven artifacts.
      */
-    private final FeedProvider feedProvider;
+    private final FeedCache feedCache;
+    /**
+     * Remembers versions that recently failed; <code>null</code> if disabled.
+     */
+    private final FailureMemo failureMemo;
+    /**
+     * The path prefix of administrative views; <code>null</code> if disabled.
+     */
+    private final String adminPath;
+    /**
+     * Records where generation time goes; <code>null</code> if administrative
+     * views are disabled.
+     */
+    private final GenerationMetrics generationMetrics;
+    /**
+     * Tracks the most requested feeds; <code>null</code> if disabled.
+     */
+    private final CacheWarmer cacheWarmer;
+    /**
+     * Periodically saves the most requested feeds; <code>null</code> if
+     * disabled.
+     */
+    private final ScheduledExecutorService snapshotExecutor;
+    /**
+     * Copies feeds to clients while they are being generated, so container
+     * threads are not blocked; <code>null</code> if streaming is disabled.
+     */
+    private final ExecutorService streamExecutor;
+    /**
+     * Executors to shut down when the servlet is destroyed.
+     */
+    private final List<ExecutorService> executors = new ArrayList<ExecutorService>();
 
     public FeedServlet() throws IOException {
         // Load configuration from Java system properties
@@ -50,16 +102,180 @@ public class FeedServlet
         LOGGER.info("pom2feed-service.mavenRepository=" + mavenRepository);
         String gnuPGKey = getProperty("pom2feed-service.gnuPGKey", null);
         LOGGER.info("pom2feed-service.gnuPGKey=" + gnuPGKey);
+        String signingKeyring = getProperty("pom2feed-service.signingKeyring", null);
+        LOGGER.info("pom2feed-service.signingKeyring=" + signingKeyring);
+        String signingPassphrase = getProperty("pom2feed-service.signingPassphrase", null);
+        int signingThreads = parseInt(getProperty("pom2feed-service.signingThreads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        LOGGER.info("pom2feed-service.signingThreads=" + signingThreads);
+        int versionConcurrency = parseInt(getProperty("pom2feed-service.versionConcurrency", "1"));
+        LOGGER.info("pom2feed-service.versionConcurrency=" + versionConcurrency);
+        String pomReader = getProperty("pom2feed-service.pomReader", "full");
+        LOGGER.info("pom2feed-service.pomReader=" + pomReader);
+        boolean incrementalUpdates = parseBoolean(getProperty("pom2feed-service.incrementalUpdates", "false"));
+        LOGGER.info("pom2feed-service.incrementalUpdates=" + incrementalUpdates);
+        String feedStore = getProperty("pom2feed-service.feedStore", null);
+        LOGGER.info("pom2feed-service.feedStore=" + feedStore);
+        String implementationStore = getProperty("pom2feed-service.implementationStore", null);
+        LOGGER.info("pom2feed-service.implementationStore=" + implementationStore);
+        int refreshThreads = parseInt(getProperty("pom2feed-service.refreshThreads", "4"));
+        LOGGER.info("pom2feed-service.refreshThreads=" + refreshThreads);
+        int maxStaleness = parseInt(getProperty("pom2feed-service.maxStaleness", "24"));
+        LOGGER.info("pom2feed-service.maxStaleness=" + maxStaleness);
+        int generationThreads = parseInt(getProperty("pom2feed-service.generationThreads", "8"));
+        LOGGER.info("pom2feed-service.generationThreads=" + generationThreads);
+        boolean virtualThreads = parseBoolean(getProperty("pom2feed-service.virtualThreads", "false"));
+        LOGGER.info("pom2feed-service.virtualThreads=" + virtualThreads);
+        int negativeCacheTtl = parseInt(getProperty("pom2feed-service.negativeCacheTtl", "10"));
+        LOGGER.info("pom2feed-service.negativeCacheTtl=" + negativeCacheTtl);
+        int connectTimeout = parseInt(getProperty("pom2feed-service.connectTimeout", "10"));
+        LOGGER.info("pom2feed-service.connectTimeout=" + connectTimeout);
+        int readTimeout = parseInt(getProperty("pom2feed-service.readTimeout", "30"));
+        LOGGER.info("pom2feed-service.readTimeout=" + readTimeout);
+        String maxConnections = getProperty("pom2feed-service.maxConnections", "20");
+        LOGGER.info("pom2feed-service.maxConnections=" + maxConnections);
+        String failureLog = getProperty("pom2feed-service.failureLog", null);
+        LOGGER.info("pom2feed-service.failureLog=" + failureLog);
+        int failureBackoff = parseInt(getProperty("pom2feed-service.failureBackoff", "24"));
+        LOGGER.info("pom2feed-service.failureBackoff=" + failureBackoff);
+        this.adminPath = emptyToNull(getProperty("pom2feed-service.adminPath", null));
+        LOGGER.info("pom2feed-service.adminPath=" + adminPath);
+        String hotKeys = getProperty("pom2feed-service.hotKeys", null);
+        LOGGER.info("pom2feed-service.hotKeys=" + hotKeys);
+        int hotKeysInterval = parseInt(getProperty("pom2feed-service.hotKeysInterval", "10"));
+        LOGGER.info("pom2feed-service.hotKeysInterval=" + hotKeysInterval);
+        int warmupConcurrency = parseInt(getProperty("pom2feed-service.warmupConcurrency", "4"));
+        LOGGER.info("pom2feed-service.warmupConcurrency=" + warmupConcurrency);
+        int warmupReadyCount = parseInt(getProperty("pom2feed-service.warmupReadyCount", "100"));
+        LOGGER.info("pom2feed-service.warmupReadyCount=" + warmupReadyCount);
+        int prefetchDepth = parseInt(getProperty("pom2feed-service.prefetchDepth", "0"));
+        LOGGER.info("pom2feed-service.prefetchDepth=" + prefetchDepth);
+        double prefetchRate = parseDouble(getProperty("pom2feed-service.prefetchRate", "1"));
+        LOGGER.info("pom2feed-service.prefetchRate=" + prefetchRate);
+        boolean streaming = parseBoolean(getProperty("pom2feed-service.streaming", "false"));
+        LOGGER.info("pom2feed-service.streaming=" + streaming);
+
+        // Must happen before the first upstream request initializes the JDK's keep-alive cache
+        if (getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", maxConnections);
+        }
+        HttpTransport.setDefault(new HttpTransport(connectTimeout, readTimeout, TimeUnit.SECONDS));
 
         // Load files into memory
-        this.gpgKeyData = isNullOrEmpty(gnuPGKey) ? null : GnuPG.getPublicKey(gnuPGKey);
-        if (isNullOrEmpty(gpgKeyData)) {
+        long startTime = System.currentTimeMillis();
+        String gpgKey = isNullOrEmpty(gnuPGKey) ? null : GnuPG.getPublicKey(gnuPGKey);
+        if (isNullOrEmpty(gpgKey)) {
             LOGGER.warn("No GnuPG key data loaded!");
+            this.gpgKeyData = null;
+        } else {
+            this.gpgKeyData = new CachedResponse(gpgKey, "text/plain", startTime, Long.MAX_VALUE);
+        }
+        this.xslData = new CachedResponse(readAll(FeedServlet.class.getResourceAsStream("/feed.xsl")), "text/xml", startTime, Long.MAX_VALUE);
+        this.cssData = new CachedResponse(readAll(FeedServlet.class.getResourceAsStream("/feed.css")), "text/css", startTime, Long.MAX_VALUE);
+
+        ExecutorFactory executorFactory = new ExecutorFactory(virtualThreads);
+        FeedGenerator feedGenerator = new FeedGenerator(mavenRepository, serviceURL, gnuPGKey);
+        if (adminPath == null) {
+            this.generationMetrics = null;
+        } else {
+            this.generationMetrics = new GenerationMetrics();
+            feedGenerator.enableMetrics(generationMetrics);
+        }
+        if (!isNullOrEmpty(gnuPGKey) && !isNullOrEmpty(signingKeyring)) {
+            try {
+                feedGenerator.enableInProcessSigning(new File(signingKeyring),
+                        (signingPassphrase == null) ? null : signingPassphrase.toCharArray(),
+                        track(executorFactory.newComputeThreadPool("pom2feed-signing-%d", signingThreads)));
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to load signing key, using external GnuPG process", ex);
+            }
+        }
+        if (versionConcurrency > 1) {
+            feedGenerator.enableParallelVersions(track(executorFactory.newCachedThreadPool("pom2feed-version-%d")), versionConcurrency);
+        }
+        if (pomReader.equals("lightweight")) {
+            feedGenerator.enableLightweightModels(false);
+        } else if (pomReader.equals("shadow")) {
+            feedGenerator.enableLightweightModels(true);
+        }
+        if (incrementalUpdates) {
+            feedGenerator.enableIncrementalUpdates();
+        }
+        if (!isNullOrEmpty(implementationStore)) {
+            feedGenerator.enableImplementationStore(new File(implementationStore));
+        }
+        if (isNullOrEmpty(failureLog)) {
+            this.failureMemo = null;
+        } else {
+            this.failureMemo = new FailureMemo(new File(failureLog), failureBackoff, TimeUnit.HOURS);
+            feedGenerator.enableFailureMemo(failureMemo);
+        }
+        this.feedCache = new FeedCache(isNullOrEmpty(feedStore)
+                ? feedGenerator
+                : new FeedStore(feedGenerator, new File(feedStore)),
+                track(executorFactory.newFixedThreadPool("pom2feed-refresh-%d", refreshThreads)));
+        feedCache.reportStaleness(maxStaleness, TimeUnit.HOURS);
+        feedCache.enableAsyncLoading(track(executorFactory.newFixedThreadPool("pom2feed-generation-%d", generationThreads)));
+        if (negativeCacheTtl > 0) {
+            feedCache.enableNegativeCaching(10000, negativeCacheTtl, TimeUnit.MINUTES);
+        }
+        if (streaming) {
+            feedCache.enableStreaming();
+            this.streamExecutor = track(executorFactory.newCachedThreadPool("pom2feed-stream-%d"));
+        } else {
+            this.streamExecutor = null;
+        }
+        if (prefetchDepth > 0) {
+            feedCache.enablePrefetching(serviceURL, track(executorFactory.newLowPriorityExecutor("pom2feed-prefetch-%d", 1000)),
+                    prefetchDepth, prefetchRate);
         }
-        this.xslData = readAll(FeedServlet.class.getResourceAsStream("/feed.xsl"));
-        this.cssData = readAll(FeedServlet.class.getResourceAsStream("/feed.css"));
 
-        this.feedProvider = new FeedCache(new FeedGenerator(mavenRepository, serviceURL, gnuPGKey));
+        if (isNullOrEmpty(hotKeys)) {
+            this.cacheWarmer = null;
+            this.snapshotExecutor = null;
+        } else {
+            this.cacheWarmer = new CacheWarmer(new File(hotKeys), 1000);
+            cacheWarmer.warmUp(feedCache, track(executorFactory.newFixedThreadPool("pom2feed-warmup-%d", 1)), warmupConcurrency, warmupReadyCount);
+            this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("pom2feed-snapshot-%d").setDaemon(true).build());
+            snapshotExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    saveHotKeys();
+                }
+            }, hotKeysInterval, hotKeysInterval, TimeUnit.MINUTES);
+        }
+    }
+
+    private ExecutorService track(ExecutorService executor) {
+        executors.add(executor);
+        return executor;
+    }
+
+    @Override
+    public void destroy() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdown();
+            saveHotKeys();
+        }
+        for (ExecutorService executor : executors) {
+            executor.shutdownNow();
+        }
+        if (failureMemo != null) {
+            try {
+                failureMemo.close();
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to close failure log", ex);
+            }
+        }
+        super.destroy();
+    }
+
+    private void saveHotKeys() {
+        try {
+            cacheWarmer.snapshot();
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to save most requested feeds", ex);
+        }
     }
 
     @Override
@@ -70,16 +286,18 @@ public class FeedServlet
 
         if (path.equals("") || path.equals("/")) {
             respondWelcome(resp);
+        } else if (adminPath != null && path.startsWith(adminPath)) {
+            respondAdmin(resp, path.substring(adminPath.length()));
         } else if (path.endsWith(".gpg")) {
-            respondGnuPGKey(resp);
+            respondGnuPGKey(req, resp);
         } else if (path.endsWith("/feed.xsl")) {
-            respond(resp, "text/xml", xslData);
+            respond(req, resp, xslData, STATIC_MAX_AGE);
         } else if (path.endsWith("/feed.css")) {
-            respond(resp, "text/css", cssData);
+            respond(req, resp, cssData, STATIC_MAX_AGE);
         } else {
             String artifactPath = path.substring(1);
             if (ArtifactUtils.validatePath(artifactPath)) {
-                respondFeed(resp, artifactPath);
+                respondFeed(req, resp, artifactPath);
             } else {
                 respondError(resp);
             }
@@ -102,44 +320,310 @@ public class FeedServlet
         out.write("</html>");
     }
 
+    /**
+     * Responds with an administrative view.
+     *
+     * @param view The name of the view.
+     */
+    private void respondAdmin(HttpServletResponse resp, String view) throws IOException {
+        if (view.equals("failures") && failureMemo != null) {
+            respondFailures(resp);
+        } else if (view.equals("ready")) {
+            respondReady(resp);
+        } else if (view.equals("metrics") && generationMetrics != null) {
+            respondMetrics(resp);
+        } else {
+            resp.sendError(404, "Unknown view");
+        }
+    }
+
+    /**
+     * Responds with 200 once the most requested feeds have been loaded after
+     * startup and with 503 before that.
+     */
+    private void respondReady(HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain");
+        resp.setHeader("Cache-Control", "no-cache");
+        if (cacheWarmer == null || cacheWarmer.isReady()) {
+            resp.getWriter().write("ready\n");
+        } else {
+            resp.setStatus(503);
+            resp.getWriter().write("warming up\n");
+        }
+    }
+
+    /**
+     * Responds with generation, cache and upstream metrics in the Prometheus
+     * text format.
+     */
+    private void respondMetrics(HttpServletResponse resp) throws IOException {
+        resp.setContentType(MetricsWriter.CONTENT_TYPE);
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        MetricsWriter out = new MetricsWriter(resp.getWriter());
+        generationMetrics.writeTo(out);
+
+        CacheStats stats = feedCache.getStats();
+        out.counter("pom2feed_cache_hits_total", "Lookups of feeds that were cached.", stats.hitCount());
+        out.counter("pom2feed_cache_misses_total", "Lookups of feeds that were not cached.", stats.missCount());
+        out.counter("pom2feed_cache_loads_total", "Feeds loaded into the cache successfully.", stats.loadSuccessCount());
+        out.counter("pom2feed_cache_load_failures_total", "Feeds that failed to load into the cache.", stats.loadExceptionCount());
+        out.counter("pom2feed_cache_load_seconds_total", "Time spent loading feeds into the cache.", stats.totalLoadTime() / 1e9);
+        out.counter("pom2feed_cache_evictions_total", "Feeds evicted from the cache.", stats.evictionCount());
+        out.gauge("pom2feed_cache_size", "Feeds currently cached.", feedCache.getSize());
+
+        HttpTransport transport = HttpTransport.getDefault();
+        out.counter("pom2feed_upstream_requests_total", "Requests sent to upstream servers.", transport.getRequestCount());
+        out.counter("pom2feed_upstream_failures_total", "Upstream requests that failed with an I/O or server error.", transport.getFailureCount());
+        out.counter("pom2feed_upstream_bytes_total", "Declared size of upstream response bodies.", transport.getBytesReceived());
+        out.counter("pom2feed_upstream_latency_seconds_total", "Time spent waiting for upstream responses.", transport.getTotalLatency(TimeUnit.MICROSECONDS) / 1e6);
+        out.gauge("pom2feed_upstream_latency_seconds_max", "Longest time spent waiting for a single upstream response.", transport.getMaxLatency(TimeUnit.MICROSECONDS) / 1e6);
+    }
+
+    /**
+     * Responds with a list of versions that recently failed.
+     */
+    private void respondFailures(HttpServletResponse resp) throws IOException {
+        resp.setContentType("text/plain");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        PrintWriter out = resp.getWriter();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (FailureMemo.Failure failure : failureMemo.getFailures()) {
+            out.write(dateFormat.format(new Date(failure.getTime())) + "\t" + failure.getCoordinates() + "\t" + failure.getReason() + "\n");
+        }
+    }
+
     /**
      * Responds with a Zero Install feed.
      */
-    private void respondFeed(HttpServletResponse resp, String artifactPath) throws IOException {
+    private void respondFeed(final HttpServletRequest req, final HttpServletResponse resp, final String artifactPath) throws IOException {
+        FeedStream stream = feedCache.getFeedStream(artifactPath);
+        if (stream != null) {
+            if (req.isAsyncSupported()) {
+                respondStreamAsync(req, resp, artifactPath, stream);
+            } else {
+                respondStream(resp, artifactPath, stream);
+            }
+            return;
+        }
+        final ListenableFuture<CachedResponse> future = feedCache.getResponseAsync(artifactPath);
+        if (future.isDone() || !req.isAsyncSupported()) {
+            respondFeed(req, resp, artifactPath, future);
+            return;
+        }
+
+        // Release the container thread while the feed is generated
+        final AsyncContext asyncContext = req.startAsync();
+        asyncContext.setTimeout(ASYNC_TIMEOUT);
+        final AtomicBoolean responded = new AtomicBoolean();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+                if (responded.compareAndSet(false, true)) {
+                    // Generation continues in the background, so a later retry can be served from cache
+                    resp.setHeader("Retry-After", "60");
+                    resp.sendError(503, "Feed generation in progress");
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) {
+                responded.set(true);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                // The client is gone, so the pending result must not be written to the response
+                if (responded.compareAndSet(false, true)) {
+                    LOGGER.debug("Unable to send feed", event.getThrowable());
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (!responded.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    respondFeed(req, resp, artifactPath, future);
+                } catch (IOException ex) {
+                    LOGGER.debug("Unable to send feed", ex);
+                } finally {
+                    asyncContext.complete();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Responds with the result of a feed request, waiting for it if
+     * required.
+     */
+    private void respondFeed(HttpServletRequest req, HttpServletResponse resp, String artifactPath, ListenableFuture<CachedResponse> future) throws IOException {
+        CachedResponse response;
         try {
-            respond(resp, "application/xml", feedProvider.getFeed(artifactPath));
-        } catch (IOException ex) {
+            response = getUninterruptibly(future);
+        } catch (ExecutionException ex) {
+            respondFailure(resp, ex.getCause());
+            return;
+        }
+        recordAccess(artifactPath);
+
+        // Clients may reuse the feed until the cache updates it
+        respond(req, resp, response, Long.MAX_VALUE);
+    }
+
+    /**
+     * Responds with a Zero Install feed while it is being generated, copying
+     * it on a streaming thread so the container thread is released.
+     */
+    private void respondStreamAsync(HttpServletRequest req, final HttpServletResponse resp, final String artifactPath, final FeedStream stream) throws IOException {
+        final AsyncContext asyncContext = req.startAsync();
+        // The streaming thread times out itself if generation does not start
+        asyncContext.setTimeout(0);
+        try {
+            streamExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        respondStream(resp, artifactPath, stream);
+                    } catch (IOException ex) {
+                        // The response cannot be aborted from here, but clients reject feeds cut off before the signature
+                        LOGGER.debug("Unable to stream feed", ex);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            resp.sendError(503, "Service shutting down");
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Responds with a Zero Install feed while it is being generated. Blocks
+     * the calling thread until the feed is complete.
+     */
+    private void respondStream(HttpServletResponse resp, String artifactPath, FeedStream stream) throws IOException {
+        Throwable failure;
+        try {
+            failure = stream.awaitStart(ASYNC_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // Generation continues in the background, so a later retry can be served from cache
+            resp.setHeader("Retry-After", "60");
+            resp.sendError(503, "Feed generation in progress");
+            return;
+        }
+        if (failure != null) {
+            respondFailure(resp, failure);
+            return;
+        }
+        recordAccess(artifactPath);
+
+        // Validators are not known until the feed is complete
+        resp.setContentType("application/xml");
+        resp.setCharacterEncoding("UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        try {
+            stream.copyTo(resp.getOutputStream());
+        } catch (ExecutionException ex) {
+            // The status was already sent, so abort the response to signal the incomplete feed to the client
+            throw new IOException("Feed generation failed after streaming started", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while streaming feed");
+        }
+    }
+
+    /**
+     * Counts a request for a feed that could be provided, so requests for
+     * nonexistent artifacts do not end up in cache warming snapshots.
+     */
+    private void recordAccess(String artifactPath) {
+        if (cacheWarmer != null) {
+            cacheWarmer.recordAccess(artifactPath);
+        }
+    }
+
+    /**
+     * Responds with an error describing why a feed could not be provided.
+     */
+    private void respondFailure(HttpServletResponse resp, Throwable cause) throws IOException {
+        if (cause instanceof IOException) {
             resp.sendError(404, "Not a valid Maven artifact");
-        } catch (SAXException ex) {
+        } else if (cause instanceof SAXException || cause instanceof XPathExpressionException) {
             resp.sendError(500, "Maven versioning metadata invalid");
-        } catch (XPathExpressionException ex) {
-            resp.sendError(500, "Maven versioning metadata invalid");
-        } catch (ModelBuildingException ex) {
-            resp.sendError(500, "Maven project metadata invalid: " + ex.getMessage());
+        } else if (cause instanceof ModelBuildingException) {
+            resp.sendError(500, "Maven project metadata invalid: " + cause.getMessage());
+        } else {
+            LOGGER.error("Unable to provide feed", cause);
+            resp.sendError(500, "Internal error");
         }
     }
 
     /**
      * Responds with a GnuPG key.
      */
-    private void respondGnuPGKey(HttpServletResponse resp) throws IOException {
-        if (isNullOrEmpty(gpgKeyData)) {
+    private void respondGnuPGKey(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (gpgKeyData == null) {
             resp.sendError(404, "No GnuPG key available");
             return;
         }
 
-        respond(resp, "text/plain", gpgKeyData);
+        respond(req, resp, gpgKeyData, STATIC_MAX_AGE);
     }
 
-    private void respond(HttpServletResponse resp, String contentType, String data) throws IOException {
-        byte[] bytes = data.getBytes();
+    /**
+     * Responds with cached data or with 304 if the client already has it.
+     *
+     * @param maxAge The maximum number of seconds clients may reuse the data
+     * without revalidating it.
+     */
+    private void respond(HttpServletRequest req, HttpServletResponse resp, CachedResponse data, long maxAge) throws IOException {
+        boolean gzip = data.isCompressed() && CachedResponse.acceptsGzip(req.getHeader("Accept-Encoding"));
+        if (data.isCompressed()) {
+            resp.setHeader("Vary", "Accept-Encoding");
+        }
+        resp.setHeader("ETag", data.getETag(gzip));
+        resp.setDateHeader("Last-Modified", data.getLastModified());
+        resp.setHeader("Cache-Control", "public, max-age=" + data.getMaxAge(maxAge));
+        if (data.isNotModified(req.getHeader("If-None-Match"), getDateHeader(req, "If-Modified-Since"))) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
 
-        resp.setContentType(contentType);
+        byte[] bytes = data.getBody(gzip);
+        resp.setContentType(data.getContentType());
         resp.setCharacterEncoding("UTF-8");
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+        }
         resp.setContentLength(bytes.length);
         resp.getOutputStream().write(bytes);
     }
 
+    /**
+     * Returns the value of a date request header or <code>-1</code> if it is
+     * missing or malformed.
+     */
+    private static long getDateHeader(HttpServletRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException ex) {
+            return -1;
+        }
+    }
+
     /**
      * Responds with an error page.
      */
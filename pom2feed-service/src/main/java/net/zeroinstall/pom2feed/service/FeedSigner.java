@@ -0,0 +1,28 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.IOException;
+
+/**
+ * Creates detached OpenPGP signatures for feeds.
+ */
+public interface FeedSigner {
+
+    /**
+     * Creates a detached signature like <code>gpg --detach-sign</code>.
+     *
+     * @param data The text to sign. Signed in its UTF-8 encoding.
+     * @return The signature in binary OpenPGP format.
+     * @throws IOException Signing failed.
+     */
+    byte[] sign(String data) throws IOException;
+
+    /**
+     * Returns the ID of the key new signatures are created with, so
+     * signatures created with other keys are not reused after the key
+     * changed.
+     *
+     * @return The 64-bit OpenPGP key ID.
+     * @throws IOException The key could not be determined.
+     */
+    long getKeyId() throws IOException;
+}
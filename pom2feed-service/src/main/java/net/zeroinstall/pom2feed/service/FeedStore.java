@@ -0,0 +1,159 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.*;
+import javax.xml.xpath.XPathExpressionException;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.slf4j.*;
+import org.xml.sax.SAXException;
+
+/**
+ * Persists feeds in a directory on disk so they survive restarts of the
+ * service. Stored feeds are returned regardless of their age, so a restart
+ * does not block requests on regenerating them. Callers such as
+ * {@link FeedCache} update outdated feeds in the background instead. Stored
+ * feeds are read into memory as a whole, since callers need their content as
+ * a string.
+ */
+public class FeedStore implements StoredFeedProvider, StreamingFeedProvider {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(FeedStore.class);
+    private final FeedProvider backingProvider;
+    /**
+     * The directory containing the stored feeds.
+     */
+    private final File directory;
+
+    /**
+     * Creates a feed store.
+     *
+     * @param backingProvider Provides feeds that are not stored yet or
+     * outdated.
+     * @param directory The directory containing the stored feeds. Created if
+     * it does not exist yet.
+     */
+    public FeedStore(FeedProvider backingProvider, File directory) throws IOException {
+        this.backingProvider = checkNotNull(backingProvider);
+        this.directory = checkNotNull(directory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create feed store directory " + directory);
+        }
+    }
+
+    @Override
+    public String getFeed(String artifactPath) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        File file = getFile(artifactPath);
+        String storedFeed = read(file);
+        return (storedFeed == null)
+                ? write(file, backingProvider.getFeed(artifactPath))
+                : storedFeed;
+    }
+
+    @Override
+    public long getFeedTime(String artifactPath) {
+        long lastModified = getFile(artifactPath).lastModified();
+        return (lastModified == 0) ? -1 : lastModified;
+    }
+
+    /**
+     * Streams feeds that are not stored yet if the backing provider supports
+     * it. Stored feeds are written as a whole.
+     */
+    @Override
+    public String writeFeed(String artifactPath, FeedStream stream) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        File file = getFile(artifactPath);
+        if (!file.isFile() && backingProvider instanceof StreamingFeedProvider) {
+            return write(file, ((StreamingFeedProvider) backingProvider).writeFeed(artifactPath, stream));
+        }
+
+        String feed = getFeed(artifactPath);
+        stream.write(feed);
+        return feed;
+    }
+
+    @Override
+    public String updateFeed(String artifactPath, String previousFeed) throws IOException, SAXException, XPathExpressionException, ModelBuildingException {
+        return update(getFile(artifactPath), previousFeed, backingProvider.updateFeed(artifactPath, previousFeed));
+    }
+
+    /**
+     * Returns the file used to store the feed for a specific artifact.
+     */
+    private File getFile(String artifactPath) {
+        String hash = Hashing.sha1().hashString(artifactPath, UTF_8).toString();
+        return new File(new File(directory, hash.substring(0, 2)), hash + ".xml");
+    }
+
+    /**
+     * Reads a stored feed.
+     *
+     * @return <code>null</code> if the feed is not stored or could not be
+     * read.
+     */
+    private static String read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return Files.toString(file, UTF_8);
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to read stored feed " + file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Atomically replaces a stored feed. Failures are logged but do not
+     * prevent the feed from being served.
+     *
+     * @return The feed.
+     */
+    private static String write(File file, String feed) {
+        try {
+            writeAtomically(file, feed.getBytes(UTF_8));
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to store feed " + file, ex);
+        }
+        return feed;
+    }
+
+    /**
+     * Stores an updated feed. Only marks the stored feed as current if the
+     * update did not change it.
+     *
+     * @return The updated feed.
+     */
+    private static String update(File file, String previousFeed, String feed) {
+        if (feed.equals(previousFeed) && file.setLastModified(System.currentTimeMillis())) {
+            return feed;
+        }
+        return write(file, feed);
+    }
+
+    /**
+     * Replaces a file so that readers never see partially written data.
+     * Creates the parent directory if required.
+     */
+    static void writeAtomically(File file, byte[] data) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        File tempFile = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            Files.write(data, tempFile);
+            if (!tempFile.renameTo(file)) {
+                // Some platforms do not support replacing files on rename
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Unable to replace " + file);
+                }
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+}
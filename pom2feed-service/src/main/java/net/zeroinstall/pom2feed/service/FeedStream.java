@@ -0,0 +1,137 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A feed that is being generated. Parts of the feed are written as soon as
+ * they are available and can be read concurrently by any number of clients,
+ * each starting from the beginning.
+ */
+public class FeedStream {
+
+    /**
+     * The UTF-8 encoded parts written so far.
+     */
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private boolean done;
+    /**
+     * The reason generation failed; <code>null</code> if successful or not
+     * done yet.
+     */
+    private Throwable failure;
+
+    /**
+     * Appends a part of the feed and passes it on to waiting readers.
+     */
+    public void write(String chunk) {
+        write(chunk.getBytes(UTF_8));
+    }
+
+    /**
+     * Appends a UTF-8 encoded part of the feed and passes it on to waiting
+     * readers.
+     *
+     * @param chunk The part; must not be modified afterwards.
+     */
+    public synchronized void write(byte[] chunk) {
+        checkState(!done, "stream already closed");
+        chunks.add(chunk);
+        notifyAll();
+    }
+
+    /**
+     * Returns all parts written so far as a single string.
+     */
+    public synchronized String getContent() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (byte[] chunk : chunks) {
+            buffer.write(chunk, 0, chunk.length);
+        }
+        return new String(buffer.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Marks the feed as complete.
+     */
+    public synchronized void complete() {
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Marks the feed as failed. Readers that already received parts of the
+     * feed are left with an incomplete document.
+     */
+    public synchronized void fail(Throwable failure) {
+        this.failure = checkNotNull(failure);
+        done = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits until the first part of the feed has been written or generation
+     * has ended.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of <code>timeout</code>.
+     * @return The reason generation failed before anything was written;
+     * <code>null</code> if the feed can be read.
+     * @throws TimeoutException Nothing was written within the timeout.
+     */
+    public synchronized Throwable awaitStart(long timeout, TimeUnit unit) throws TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean interrupted = false;
+        try {
+            while (chunks.isEmpty() && !done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException("Feed generation did not start in time");
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return chunks.isEmpty() ? failure : null;
+    }
+
+    /**
+     * Copies the feed to a stream as it is being generated. Flushes the
+     * stream after each part.
+     *
+     * @throws IOException Writing to the stream failed.
+     * @throws ExecutionException Generation of the feed failed.
+     * @throws InterruptedException Interrupted while waiting for further
+     * parts.
+     */
+    public void copyTo(OutputStream stream) throws IOException, ExecutionException, InterruptedException {
+        int next = 0;
+        while (true) {
+            byte[] chunk;
+            synchronized (this) {
+                while (next == chunks.size() && !done) {
+                    wait();
+                }
+                if (next == chunks.size()) {
+                    if (failure != null) {
+                        throw new ExecutionException(failure);
+                    }
+                    return;
+                }
+                chunk = chunks.get(next++);
+            }
+            stream.write(chunk);
+            stream.flush();
+        }
+    }
+}
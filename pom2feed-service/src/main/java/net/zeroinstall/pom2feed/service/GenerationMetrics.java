@@ -0,0 +1,89 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import net.zeroinstall.pom2feed.core.HttpTransport;
+
+/**
+ * Records where time goes while feeds are generated and how many upstream
+ * requests each feed needs.
+ */
+public class GenerationMetrics {
+
+    /**
+     * A step of feed generation.
+     */
+    public enum Stage {
+
+        /**
+         * Retrieving the versioning metadata of an artifact.
+         */
+        METADATA,
+        /**
+         * Reading a POM and building its effective model.
+         */
+        MODEL,
+        /**
+         * Determining the size of an artifact file.
+         */
+        HEAD,
+        /**
+         * Retrieving the hash of an artifact file.
+         */
+        SHA1,
+        /**
+         * Adding metadata and implementations to a feed.
+         */
+        ASSEMBLY,
+        /**
+         * Signing a serialized feed.
+         */
+        SIGNING,
+        /**
+         * Serializing a complete feed.
+         */
+        SERIALIZATION
+    }
+    private final Map<Stage, Histogram> stageDurations = new EnumMap<Stage, Histogram>(Stage.class);
+    private final Histogram upstreamRequests = new Histogram(1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);
+    private final Histogram upstreamBytes = new Histogram(1e3, 1e4, 1e5, 1e6, 1e7, 1e8);
+
+    public GenerationMetrics() {
+        for (Stage stage : Stage.values()) {
+            stageDurations.put(stage, new Histogram(0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30));
+        }
+    }
+
+    /**
+     * Records the time spent in a stage once.
+     *
+     * @param startTime The value of {@link System#nanoTime()} when the stage
+     * started.
+     */
+    public void recordStage(Stage stage, long startTime) {
+        stageDurations.get(stage).record((System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Records the upstream requests made to generate a single feed.
+     */
+    public void recordUpstreamUsage(HttpTransport.Usage usage) {
+        upstreamRequests.record(usage.getRequestCount());
+        upstreamBytes.record(usage.getBytesReceived());
+    }
+
+    /**
+     * Writes all recorded metrics.
+     */
+    void writeTo(MetricsWriter out) {
+        out.header("pom2feed_stage_duration_seconds", "Time spent in each stage of feed generation.", "histogram");
+        for (Map.Entry<Stage, Histogram> entry : stageDurations.entrySet()) {
+            entry.getValue().writeTo(out, "pom2feed_stage_duration_seconds",
+                    "stage=\"" + entry.getKey().name().toLowerCase(Locale.ENGLISH) + "\"");
+        }
+        out.header("pom2feed_feed_upstream_requests", "Upstream requests made to generate a feed.", "histogram");
+        upstreamRequests.writeTo(out, "pom2feed_feed_upstream_requests", "");
+        out.header("pom2feed_feed_upstream_bytes", "Upstream response bytes received to generate a feed.", "histogram");
+        upstreamBytes.writeTo(out, "pom2feed_feed_upstream_bytes", "");
+    }
+}
@@ -0,0 +1,43 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import java.io.IOException;
+import net.zeroinstall.publish.GnuPG;
+
+/**
+ * Signs feeds by running an external <code>gpg</code> process for each
+ * signature.
+ */
+class GnuPGSigner implements FeedSigner {
+
+    /**
+     * The name of the key to use for GnuPG signing.
+     */
+    private final String key;
+    /**
+     * The ID of the key <code>gpg</code> signs with; <code>null</code> if
+     * not determined yet.
+     */
+    private volatile Long keyId;
+
+    public GnuPGSigner(String key) {
+        this.key = checkNotNull(key);
+    }
+
+    @Override
+    public byte[] sign(String data) throws IOException {
+        return GnuPG.detachSign(data, key);
+    }
+
+    /**
+     * Determines the key ID from a signature on first use, since
+     * <code>gpg</code> resolves the key name itself.
+     */
+    @Override
+    public long getKeyId() throws IOException {
+        if (keyId == null) {
+            keyId = OpenPGPSigner.getSignatureKeyId(sign(""));
+        }
+        return keyId;
+    }
+}
@@ -0,0 +1,68 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import java.util.Arrays;
+
+/**
+ * Counts observed values in buckets with fixed upper bounds, along with
+ * their total count and sum.
+ */
+class Histogram {
+
+    /**
+     * The inclusive upper bounds of the buckets in ascending order. Values
+     * above the last bound are only counted in the total.
+     */
+    private final double[] bounds;
+    /**
+     * The number of values in each bucket, not including smaller buckets.
+     */
+    private final long[] counts;
+    private long count;
+    private double sum;
+
+    /**
+     * Creates a histogram.
+     *
+     * @param bounds The inclusive upper bounds of the buckets in ascending
+     * order.
+     */
+    public Histogram(double... bounds) {
+        checkArgument(bounds.length > 0, "no buckets");
+        for (int i = 1; i < bounds.length; i++) {
+            checkArgument(bounds[i - 1] < bounds[i], "bounds not ascending: %s", Arrays.toString(bounds));
+        }
+        this.bounds = bounds.clone();
+        this.counts = new long[bounds.length];
+    }
+
+    public synchronized void record(double value) {
+        int bucket = Arrays.binarySearch(bounds, value);
+        if (bucket < 0) {
+            bucket = -bucket - 1;
+        }
+        if (bucket < counts.length) {
+            counts[bucket]++;
+        }
+        count++;
+        sum += value;
+    }
+
+    /**
+     * Writes the buckets, count and sum as samples of a Prometheus histogram.
+     *
+     * @param labels Additional labels for all samples, e.g.
+     * <code>stage="model"</code>; may be empty.
+     */
+    public synchronized void writeTo(MetricsWriter out, String name, String labels) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts[i];
+            out.sample(name + "_bucket", prefix + "le=\"" + MetricsWriter.format(bounds[i]) + "\"", cumulative);
+        }
+        out.sample(name + "_bucket", prefix + "le=\"+Inf\"", count);
+        out.sample(name + "_sum", labels, sum);
+        out.sample(name + "_count", labels, count);
+    }
+}
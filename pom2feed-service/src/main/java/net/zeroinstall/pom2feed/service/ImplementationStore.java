@@ -0,0 +1,125 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.*;
+import net.zeroinstall.model.Implementation;
+import static net.zeroinstall.pom2feed.service.SharedModelCache.isSnapshot;
+import org.apache.xmlbeans.*;
+import org.slf4j.*;
+
+/**
+ * Persists the implementations built for released versions of artifacts in a
+ * directory on disk. Released versions never change, so their implementations
+ * can be reused by all future feeds without contacting the Maven repository.
+ * Snapshot versions are never stored.
+ */
+class ImplementationStore {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ImplementationStore.class);
+    /**
+     * The version of the way implementations are built. Must be incremented
+     * whenever {@link net.zeroinstall.pom2feed.core.FeedBuilder} builds
+     * implementations differently, so implementations stored by previous
+     * versions are built again instead of being reused.
+     */
+    final static int FORMAT_VERSION = 1;
+    /**
+     * The directory containing the stored implementations.
+     */
+    private final File directory;
+    /**
+     * Distinguishes implementations built with different settings (e.g.
+     * repository URLs) that share the same directory.
+     */
+    private final String namespace;
+    private final int formatVersion;
+
+    /**
+     * Creates an implementation store.
+     *
+     * @param directory The directory containing the stored implementations.
+     * Created if it does not exist yet.
+     * @param namespace Distinguishes implementations built with different
+     * settings that share the same directory.
+     */
+    public ImplementationStore(File directory, String namespace) throws IOException {
+        this(directory, namespace, FORMAT_VERSION);
+    }
+
+    /**
+     * Creates an implementation store for implementations built in a specific
+     * way.
+     *
+     * @param directory The directory containing the stored implementations.
+     * Created if it does not exist yet.
+     * @param namespace Distinguishes implementations built with different
+     * settings that share the same directory.
+     * @param formatVersion The version of the way implementations are built.
+     */
+    ImplementationStore(File directory, String namespace, int formatVersion) throws IOException {
+        this.directory = checkNotNull(directory);
+        this.namespace = checkNotNull(namespace);
+        this.formatVersion = formatVersion;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create implementation store directory " + directory);
+        }
+    }
+
+    /**
+     * Returns a stored implementation.
+     *
+     * @return <code>null</code> if the version was not stored yet, is a
+     * snapshot or could not be read.
+     */
+    public Implementation get(String groupId, String artifactId, String version) {
+        if (isSnapshot(version)) {
+            return null;
+        }
+        File file = getFile(groupId, artifactId, version);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return Implementation.Factory.parse(Files.toString(file, UTF_8));
+        } catch (IOException ex) {
+            LOGGER.warn("Unable to read stored implementation " + file, ex);
+        } catch (XmlException ex) {
+            LOGGER.warn("Unable to parse stored implementation " + file, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Stores an implementation. Does nothing for snapshot versions. Failures
+     * are logged but otherwise ignored.
+     *
+     * @return A copy of the implementation as it would be returned by
+     * {@link #get(String, String, String)}.
+     */
+    public Implementation put(String groupId, String artifactId, String version, Implementation implementation) {
+        // Bind the namespace to the default prefix, so no other prefix is introduced when adding the copy to feeds
+        String xml = implementation.xmlText(new XmlOptions().setUseDefaultNamespace());
+        if (!isSnapshot(version)) {
+            File file = getFile(groupId, artifactId, version);
+            try {
+                FeedStore.writeAtomically(file, xml.getBytes(UTF_8));
+            } catch (IOException ex) {
+                LOGGER.warn("Unable to store implementation " + file, ex);
+            }
+        }
+        try {
+            return Implementation.Factory.parse(xml);
+        } catch (XmlException ex) {
+            throw propagate(ex);
+        }
+    }
+
+    private File getFile(String groupId, String artifactId, String version) {
+        String hash = Hashing.sha1().hashString(formatVersion + "\n" + namespace + '\n' + groupId + ':' + artifactId + ':' + version, UTF_8).toString();
+        return new File(new File(directory, hash.substring(0, 2)), hash + ".xml");
+    }
+}
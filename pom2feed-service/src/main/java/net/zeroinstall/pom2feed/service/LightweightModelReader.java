@@ -0,0 +1,428 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import com.google.common.collect.ImmutableSet;
+import static com.google.common.collect.Lists.reverse;
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import net.zeroinstall.pom2feed.core.HttpTransport;
+import static net.zeroinstall.pom2feed.core.MavenUtils.getArtifactFileUrl;
+import org.apache.maven.model.*;
+import org.apache.maven.model.building.ModelCache;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.slf4j.*;
+
+/**
+ * Reads the parts of Maven models used for feed implementations without
+ * running the full Maven model building pipeline. Only parent inheritance,
+ * dependency management and property interpolation are supported. POMs using
+ * other constructs that could affect the result (activated profiles, imported
+ * dependency management, unknown expressions, ...) are rejected so the caller
+ * can fall back to the full model builder.
+ */
+class LightweightModelReader {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(LightweightModelReader.class);
+    /**
+     * The {@link ModelCache} tag used for raw models.
+     */
+    private final static String RAW_MODEL_TAG = "lightweight-raw";
+    /**
+     * The {@link ModelCache} tag used for resolved models.
+     */
+    private final static String MODEL_TAG = "lightweight";
+    /**
+     * The maximum number of parents to follow.
+     */
+    private final static int MAX_LINEAGE = 32;
+    /**
+     * The maximum nesting depth of expressions.
+     */
+    private final static int MAX_INTERPOLATION_DEPTH = 16;
+    private final static String COMPILER_PLUGIN_KEY = "org.apache.maven.plugins:maven-compiler-plugin";
+    private final static Pattern EXPRESSION_PATTERN = Pattern.compile("\\$\\{([^}]+)\\}");
+    /**
+     * Model fields that may be referenced in expressions.
+     */
+    private final static Set<String> MODEL_FIELDS = ImmutableSet.of(
+            "groupId", "artifactId", "version", "packaging",
+            "parent.groupId", "parent.artifactId", "parent.version");
+    /**
+     * The base URL of the Maven repository used to provide POMs.
+     */
+    private final URL mavenRepository;
+    /**
+     * Caches raw and resolved models of released versions.
+     */
+    private final ModelCache modelCache;
+    /**
+     * IDs of profiles that are never active.
+     */
+    private final Collection<String> inactiveProfileIds;
+
+    /**
+     * Creates a lightweight model reader.
+     *
+     * @param mavenRepository The base URL of the Maven repository used to
+     * provide POMs.
+     * @param modelCache Caches raw and resolved models of released versions.
+     * @param inactiveProfileIds IDs of profiles that are never active.
+     */
+    public LightweightModelReader(URL mavenRepository, ModelCache modelCache, Collection<String> inactiveProfileIds) {
+        this.mavenRepository = checkNotNull(mavenRepository);
+        this.modelCache = checkNotNull(modelCache);
+        this.inactiveProfileIds = checkNotNull(inactiveProfileIds);
+    }
+
+    /**
+     * Reads a Maven model for a specific artifact version. The returned model
+     * only contains the coordinates, packaging, licenses, dependencies and the
+     * compiler target. It may be shared and must not be modified.
+     *
+     * @return The model or <code>null</code> if the POM (or one of its
+     * parents) uses constructs that are not supported.
+     * @throws IOException Download of one of the POMs failed.
+     */
+    public Model read(String groupId, String artifactId, String version) throws IOException {
+        Model model = (Model) modelCache.get(groupId, artifactId, version, MODEL_TAG);
+        if (model != null) {
+            return model;
+        }
+
+        try {
+            model = resolve(getLineage(groupId, artifactId, version));
+        } catch (UnsupportedModelException ex) {
+            LOGGER.debug("Unable to read " + groupId + ":" + artifactId + ":" + version + " using lightweight reader: " + ex.getMessage());
+            return null;
+        }
+        modelCache.put(groupId, artifactId, version, MODEL_TAG, model);
+        return model;
+    }
+
+    /**
+     * Returns the raw model of an artifact followed by the raw models of all
+     * of its parents.
+     */
+    private List<Model> getLineage(String groupId, String artifactId, String version) throws IOException, UnsupportedModelException {
+        List<Model> lineage = new ArrayList<Model>();
+        Model current = getRawModel(groupId, artifactId, version);
+        lineage.add(current);
+        while (current.getParent() != null) {
+            if (lineage.size() >= MAX_LINEAGE) {
+                throw new UnsupportedModelException("parent chain too long");
+            }
+            Parent parent = current.getParent();
+            if (isNullOrEmpty(parent.getGroupId()) || isNullOrEmpty(parent.getArtifactId()) || !isPlainVersion(parent.getVersion())) {
+                throw new UnsupportedModelException("parent " + parent.getId());
+            }
+            current = getRawModel(parent.getGroupId(), parent.getArtifactId(), parent.getVersion());
+            lineage.add(current);
+        }
+        return lineage;
+    }
+
+    private Model getRawModel(String groupId, String artifactId, String version) throws IOException, UnsupportedModelException {
+        Model model = (Model) modelCache.get(groupId, artifactId, version, RAW_MODEL_TAG);
+        if (model == null) {
+            model = parse(getArtifactFileUrl(mavenRepository, groupId, artifactId, version, "pom"));
+            checkSupported(model);
+            modelCache.put(groupId, artifactId, version, RAW_MODEL_TAG, model);
+        }
+        return model;
+    }
+
+    private static Model parse(URL url) throws IOException, UnsupportedModelException {
+        InputStream stream = HttpTransport.getDefault().openStream(url);
+        try {
+            return new MavenXpp3Reader().read(stream, false);
+        } catch (XmlPullParserException ex) {
+            throw new UnsupportedModelException("malformed POM: " + ex.getMessage());
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Rejects raw models using constructs that could change the resolved
+     * parts of a model in ways not handled by this reader.
+     */
+    private void checkSupported(Model model) throws UnsupportedModelException {
+        for (Profile profile : model.getProfiles()) {
+            if (profile.getActivation() != null && !inactiveProfileIds.contains(profile.getId())) {
+                throw new UnsupportedModelException("profile activation " + profile.getId());
+            }
+        }
+        if (model.getDependencyManagement() != null) {
+            for (Dependency dependency : model.getDependencyManagement().getDependencies()) {
+                if ("import".equals(dependency.getScope())) {
+                    throw new UnsupportedModelException("imported dependency management " + dependency.getManagementKey());
+                }
+            }
+        }
+        Set<String> keys = new HashSet<String>();
+        for (Dependency dependency : model.getDependencies()) {
+            if (!keys.add(dependency.getManagementKey())) {
+                throw new UnsupportedModelException("duplicate dependency " + dependency.getManagementKey());
+            }
+        }
+        for (Plugin plugin : getPlugins(model)) {
+            if (plugin.getKey().equals(COMPILER_PLUGIN_KEY) && plugin.getConfiguration() != null) {
+                Xpp3Dom config = (Xpp3Dom) plugin.getConfiguration();
+                if (config.getAttributeNames().length != 0 || (config.getChild("target") != null && config.getChild("target").getAttributeNames().length != 0)) {
+                    throw new UnsupportedModelException("compiler configuration merge attributes");
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges and interpolates the required parts of a model lineage.
+     */
+    private Model resolve(List<Model> lineage) throws UnsupportedModelException {
+        Model child = lineage.get(0);
+        Map<String, String> context = getInterpolationContext(lineage);
+
+        Model model = new Model();
+        model.setGroupId(interpolate(context.get("project.groupId"), context));
+        model.setArtifactId(interpolate(context.get("project.artifactId"), context));
+        model.setVersion(interpolate(context.get("project.version"), context));
+        model.setPackaging(interpolate(child.getPackaging(), context));
+        if (isNullOrEmpty(model.getGroupId()) || isNullOrEmpty(model.getArtifactId()) || isNullOrEmpty(model.getVersion())) {
+            throw new UnsupportedModelException("incomplete coordinates");
+        }
+
+        for (Model current : lineage) {
+            if (!current.getLicenses().isEmpty()) {
+                for (License license : current.getLicenses()) {
+                    License resolved = new License();
+                    resolved.setName(interpolate(license.getName(), context));
+                    model.addLicense(resolved);
+                }
+                break;
+            }
+        }
+
+        Map<String, Dependency> managedDependencies = new HashMap<String, Dependency>();
+        for (Dependency dependency : mergeDependencies(lineage, true)) {
+            Dependency resolved = interpolate(dependency, context);
+            managedDependencies.put(resolved.getManagementKey(), resolved);
+        }
+        for (Dependency dependency : mergeDependencies(lineage, false)) {
+            Dependency resolved = interpolate(dependency, context);
+            Dependency managed = managedDependencies.get(resolved.getManagementKey());
+            if (managed != null) {
+                if (resolved.getVersion() == null) {
+                    resolved.setVersion(managed.getVersion());
+                }
+                if (resolved.getScope() == null) {
+                    resolved.setScope(managed.getScope());
+                }
+                if (resolved.getOptional() == null) {
+                    resolved.setOptional(managed.getOptional());
+                }
+            }
+            if (isNullOrEmpty(resolved.getVersion())) {
+                throw new UnsupportedModelException("missing version for dependency " + resolved.getManagementKey());
+            }
+            model.addDependency(resolved);
+        }
+
+        String target = interpolate(getCompilerTarget(lineage), context);
+        if (target != null) {
+            Xpp3Dom targetConfig = new Xpp3Dom("target");
+            targetConfig.setValue(target);
+            Xpp3Dom config = new Xpp3Dom("configuration");
+            config.addChild(targetConfig);
+            Plugin plugin = new Plugin();
+            plugin.setArtifactId("maven-compiler-plugin");
+            plugin.setConfiguration(config);
+            model.setBuild(new Build());
+            model.getBuild().addPlugin(plugin);
+        }
+
+        return model;
+    }
+
+    /**
+     * Builds the values available to expressions from the model lineage.
+     * Prefixed model fields take precedence over properties, which take
+     * precedence over unprefixed model fields.
+     */
+    private static Map<String, String> getInterpolationContext(List<Model> lineage) {
+        Model child = lineage.get(0);
+        Map<String, String> fields = new HashMap<String, String>();
+        fields.put("groupId", (child.getGroupId() == null && child.getParent() != null) ? child.getParent().getGroupId() : child.getGroupId());
+        fields.put("artifactId", child.getArtifactId());
+        fields.put("version", (child.getVersion() == null && child.getParent() != null) ? child.getParent().getVersion() : child.getVersion());
+        fields.put("packaging", child.getPackaging());
+        if (child.getParent() != null) {
+            fields.put("parent.groupId", child.getParent().getGroupId());
+            fields.put("parent.artifactId", child.getParent().getArtifactId());
+            fields.put("parent.version", child.getParent().getVersion());
+        }
+
+        Map<String, String> context = new HashMap<String, String>();
+        for (String field : MODEL_FIELDS) {
+            if (fields.get(field) != null) {
+                context.put(field, fields.get(field));
+            }
+        }
+        for (Model current : reverse(lineage)) {
+            for (String name : current.getProperties().stringPropertyNames()) {
+                context.put(name, current.getProperties().getProperty(name));
+            }
+        }
+        for (String field : MODEL_FIELDS) {
+            if (fields.get(field) != null) {
+                context.put("project." + field, fields.get(field));
+                context.put("pom." + field, fields.get(field));
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Merges the dependencies (or managed dependencies) of a model lineage.
+     * Dependencies declared closer to the child take precedence; the order
+     * matches that of the full model builder.
+     */
+    private static Collection<Dependency> mergeDependencies(List<Model> lineage, boolean managed) {
+        Map<String, Dependency> merged = new LinkedHashMap<String, Dependency>();
+        for (Model current : lineage) {
+            List<Dependency> dependencies = managed
+                    ? ((current.getDependencyManagement() == null) ? Collections.<Dependency>emptyList() : current.getDependencyManagement().getDependencies())
+                    : current.getDependencies();
+            for (Dependency dependency : dependencies) {
+                if (!merged.containsKey(dependency.getManagementKey())) {
+                    merged.put(dependency.getManagementKey(), dependency);
+                }
+            }
+        }
+        return merged.values();
+    }
+
+    /**
+     * Determines the Java target version configured for the compiler plugin
+     * in the effective model.
+     *
+     * @return The uninterpolated target version or <code>null</code> if none
+     * is configured.
+     */
+    private static String getCompilerTarget(List<Model> lineage) {
+        boolean declared = false;
+        String target = null;
+        for (int i = 0; i < lineage.size(); i++) {
+            Plugin plugin = getCompilerPlugin(lineage.get(i).getBuild() == null ? null : lineage.get(i).getBuild().getPlugins(), i > 0);
+            if (plugin != null) {
+                declared = true;
+                if (target == null) {
+                    target = getTarget(plugin);
+                }
+            }
+        }
+        if (!declared) {
+            return null;
+        }
+        for (int i = 0; i < lineage.size() && target == null; i++) {
+            Build build = lineage.get(i).getBuild();
+            PluginManagement management = (build == null) ? null : build.getPluginManagement();
+            Plugin plugin = getCompilerPlugin(management == null ? null : management.getPlugins(), i > 0);
+            if (plugin != null) {
+                target = getTarget(plugin);
+            }
+        }
+        return target;
+    }
+
+    private static Plugin getCompilerPlugin(List<Plugin> plugins, boolean inherited) {
+        if (plugins != null) {
+            for (Plugin plugin : plugins) {
+                if (plugin.getKey().equals(COMPILER_PLUGIN_KEY) && (!inherited || plugin.isInherited())) {
+                    return plugin;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getTarget(Plugin plugin) {
+        Xpp3Dom config = (Xpp3Dom) plugin.getConfiguration();
+        if (config == null || config.getChild("target") == null) {
+            return null;
+        }
+        return config.getChild("target").getValue();
+    }
+
+    private static List<Plugin> getPlugins(Model model) {
+        List<Plugin> plugins = new ArrayList<Plugin>();
+        if (model.getBuild() != null) {
+            plugins.addAll(model.getBuild().getPlugins());
+            if (model.getBuild().getPluginManagement() != null) {
+                plugins.addAll(model.getBuild().getPluginManagement().getPlugins());
+            }
+        }
+        return plugins;
+    }
+
+    private static Dependency interpolate(Dependency dependency, Map<String, String> context) throws UnsupportedModelException {
+        Dependency resolved = new Dependency();
+        resolved.setGroupId(interpolate(dependency.getGroupId(), context));
+        resolved.setArtifactId(interpolate(dependency.getArtifactId(), context));
+        resolved.setVersion(interpolate(dependency.getVersion(), context));
+        resolved.setType(interpolate(dependency.getType(), context));
+        resolved.setClassifier(interpolate(dependency.getClassifier(), context));
+        resolved.setScope(interpolate(dependency.getScope(), context));
+        resolved.setOptional(interpolate(dependency.getOptional(), context));
+        return resolved;
+    }
+
+    /**
+     * Replaces all expressions in a value.
+     *
+     * @throws UnsupportedModelException An expression could not be resolved.
+     */
+    private static String interpolate(String value, Map<String, String> context) throws UnsupportedModelException {
+        if (value == null) {
+            return null;
+        }
+        for (int depth = 0; value.contains("${"); depth++) {
+            if (depth >= MAX_INTERPOLATION_DEPTH) {
+                throw new UnsupportedModelException("recursive expression " + value);
+            }
+            Matcher matcher = EXPRESSION_PATTERN.matcher(value);
+            StringBuffer result = new StringBuffer();
+            while (matcher.find()) {
+                String replacement = context.get(matcher.group(1));
+                if (replacement == null) {
+                    throw new UnsupportedModelException("unknown expression " + matcher.group());
+                }
+                matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+            }
+            matcher.appendTail(result);
+            value = result.toString();
+        }
+        return value;
+    }
+
+    private static boolean isPlainVersion(String version) {
+        return !isNullOrEmpty(version)
+                && !version.contains("${")
+                && !version.contains("[") && !version.contains("(");
+    }
+
+    /**
+     * Indicates that a model uses constructs not supported by this reader.
+     */
+    private static class UnsupportedModelException extends Exception {
+
+        UnsupportedModelException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.PrintWriter;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ */
+class MetricsWriter {
+
+    /**
+     * The content type of the format.
+     */
+    public final static String CONTENT_TYPE = "text/plain; version=0.0.4";
+    private final PrintWriter out;
+
+    public MetricsWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a metric whose value only ever increases.
+     */
+    public void counter(String name, String help, double value) {
+        header(name, help, "counter");
+        sample(name, "", value);
+    }
+
+    /**
+     * Writes a metric whose value may go up and down.
+     */
+    public void gauge(String name, String help, double value) {
+        header(name, help, "gauge");
+        sample(name, "", value);
+    }
+
+    /**
+     * Writes the description of a metric. Must precede its samples.
+     *
+     * @param type The metric type, e.g. <code>histogram</code>.
+     */
+    public void header(String name, String help, String type) {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    /**
+     * Writes a single sample of a metric.
+     *
+     * @param labels The labels of the sample, e.g.
+     * <code>stage="model"</code>; may be empty.
+     */
+    public void sample(String name, String labels, double value) {
+        out.write(name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + format(value) + "\n");
+    }
+
+    /**
+     * Formats a value without a fractional part if it is integral.
+     */
+    static String format(double value) {
+        return (value == Math.rint(value) && Math.abs(value) < 1e15)
+                ? Long.toString((long) value)
+                : Double.toString(value);
+    }
+}
@@ -0,0 +1,241 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.*;
+import com.google.common.io.BaseEncoding;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.bc.BcPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.bc.*;
+import org.slf4j.*;
+
+/**
+ * Signs feeds within the JVM using a secret key loaded once from an exported
+ * keyring (e.g. <code>gpg --export-secret-keys</code>). Signatures are
+ * computed by a pool of workers and are interchangeable with the ones
+ * created by <code>gpg --detach-sign</code>.
+ */
+class OpenPGPSigner implements FeedSigner {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(OpenPGPSigner.class);
+    private final PGPPrivateKey privateKey;
+    private final long keyId;
+    private final int keyAlgorithm;
+    /**
+     * Computes the signatures.
+     */
+    private final Executor workers;
+    /**
+     * Used if signing within the JVM fails. <code>null</code> if such
+     * failures are reported directly.
+     */
+    private final FeedSigner fallback;
+
+    /**
+     * Creates an in-process signer.
+     *
+     * @param keyring The exported secret keyring, either binary or ASCII
+     * armored.
+     * @param keyName The key to sign with, specified like for GnuPG: a key ID,
+     * a fingerprint or part of a user ID. The most recently created signing
+     * key of the first matching key ring that is neither revoked nor expired
+     * is used.
+     * @param passphrase The passphrase protecting the key; may be
+     * <code>null</code> for unprotected keys.
+     * @param workers Computes the signatures; should use a bounded number of
+     * threads since signing is CPU-bound.
+     * @param fallback Used if signing within the JVM fails; may be
+     * <code>null</code>.
+     * @throws IOException The keyring could not be read or contains no
+     * usable key matching <code>keyName</code>.
+     */
+    public OpenPGPSigner(File keyring, String keyName, char[] passphrase, Executor workers, FeedSigner fallback) throws IOException {
+        PGPSecretKey secretKey = findSigningKey(readKeyRings(keyring), checkNotNull(keyName));
+        if (secretKey == null) {
+            throw new IOException("No signing key matching '" + keyName + "' in " + keyring);
+        }
+        try {
+            this.privateKey = secretKey.extractPrivateKey(new BcPBESecretKeyDecryptorBuilder(new BcPGPDigestCalculatorProvider())
+                    .build(passphrase == null ? new char[0] : passphrase));
+        } catch (PGPException ex) {
+            throw new IOException("Unable to unlock signing key " + Long.toHexString(secretKey.getKeyID()).toUpperCase(), ex);
+        }
+        this.keyId = secretKey.getKeyID();
+        this.keyAlgorithm = secretKey.getPublicKey().getAlgorithm();
+        this.workers = checkNotNull(workers);
+        this.fallback = fallback;
+        LOGGER.info("Loaded signing key " + Long.toHexString(secretKey.getKeyID()).toUpperCase() + " from " + keyring);
+    }
+
+    private static PGPSecretKeyRingCollection readKeyRings(File keyring) throws IOException {
+        InputStream stream = new FileInputStream(keyring);
+        try {
+            return new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(stream), new BcKeyFingerprintCalculator());
+        } catch (PGPException ex) {
+            throw new IOException("Unable to read keyring " + keyring, ex);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Returns the most recently created valid key able to sign data from the
+     * first key ring matching a GnuPG-style key name.
+     *
+     * @return <code>null</code> if there is no such key.
+     */
+    private static PGPSecretKey findSigningKey(PGPSecretKeyRingCollection rings, String keyName) {
+        long now = System.currentTimeMillis();
+        Iterator<PGPSecretKeyRing> ringIterator = rings.getKeyRings();
+        while (ringIterator.hasNext()) {
+            PGPSecretKeyRing ring = ringIterator.next();
+            if (!matches(ring, keyName) || !isValid(ring.getPublicKey(), now)) {
+                continue;
+            }
+
+            PGPSecretKey signingKey = null;
+            Iterator<PGPSecretKey> keyIterator = ring.getSecretKeys();
+            while (keyIterator.hasNext()) {
+                PGPSecretKey key = keyIterator.next();
+                PGPPublicKey publicKey = key.getPublicKey();
+                if (!key.isPrivateKeyEmpty() && canSign(publicKey) && isValid(publicKey, now)
+                        && (signingKey == null || !publicKey.getCreationTime().before(signingKey.getPublicKey().getCreationTime()))) {
+                    signingKey = key;
+                }
+            }
+            if (signingKey != null) {
+                return signingKey;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether a key ring is selected by a key name. Hexadecimal
+     * names select keys by the end of their fingerprint, anything else by a
+     * case-insensitive part of a user ID.
+     */
+    private static boolean matches(PGPSecretKeyRing ring, String keyName) {
+        String hex = keyName.replaceFirst("^0[xX]", "").replace(" ", "").toUpperCase();
+        boolean isHex = hex.matches("[0-9A-F]{8,40}");
+        Iterator<PGPPublicKey> keyIterator = ring.getPublicKeys();
+        while (keyIterator.hasNext()) {
+            PGPPublicKey key = keyIterator.next();
+            if (isHex) {
+                if (BaseEncoding.base16().encode(key.getFingerprint()).endsWith(hex)) {
+                    return true;
+                }
+            } else {
+                Iterator<String> userIDs = key.getUserIDs();
+                while (userIDs.hasNext()) {
+                    if (userIDs.next().toLowerCase().contains(keyName.toLowerCase())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether a key is neither revoked nor expired.
+     *
+     * @param now The current time in milliseconds since the epoch.
+     */
+    private static boolean isValid(PGPPublicKey key, long now) {
+        if (key.hasRevocation()) {
+            return false;
+        }
+        long validSeconds = key.getValidSeconds();
+        return validSeconds <= 0 || key.getCreationTime().getTime() + validSeconds * 1000 > now;
+    }
+
+    /**
+     * Determines whether a key may sign data. Uses the key flags from its
+     * self-signatures if there are any and the key algorithm otherwise.
+     */
+    private static boolean canSign(PGPPublicKey key) {
+        if (!isSigningAlgorithm(key.getAlgorithm())) {
+            return false;
+        }
+        boolean hasFlags = false;
+        Iterator<PGPSignature> signatures = key.getSignatures();
+        while (signatures.hasNext()) {
+            PGPSignatureSubpacketVector subpackets = signatures.next().getHashedSubPackets();
+            if (subpackets != null && subpackets.getKeyFlags() != 0) {
+                hasFlags = true;
+                if ((subpackets.getKeyFlags() & KeyFlags.SIGN_DATA) != 0) {
+                    return true;
+                }
+            }
+        }
+        return !hasFlags;
+    }
+
+    private static boolean isSigningAlgorithm(int algorithm) {
+        switch (algorithm) {
+            case PGPPublicKey.RSA_GENERAL:
+            case PGPPublicKey.RSA_SIGN:
+            case PGPPublicKey.DSA:
+            case PGPPublicKey.ECDSA:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public byte[] sign(final String data) throws IOException {
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                PGPSignatureGenerator generator = new PGPSignatureGenerator(
+                        new BcPGPContentSignerBuilder(keyAlgorithm, HashAlgorithmTags.SHA256));
+                generator.init(PGPSignature.BINARY_DOCUMENT, privateKey);
+                generator.update(data.getBytes(UTF_8));
+                return generator.generate().getEncoded();
+            }
+        });
+        try {
+            workers.execute(task);
+            return getUninterruptibly(task);
+        } catch (RejectedExecutionException ex) {
+            return signWithFallback(data, ex);
+        } catch (ExecutionException ex) {
+            return signWithFallback(data, ex.getCause());
+        }
+    }
+
+    @Override
+    public long getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * Returns the ID of the key a detached signature was created with.
+     *
+     * @param signature The signature in binary OpenPGP format.
+     * @return The 64-bit OpenPGP key ID.
+     * @throws IOException The data is not a valid signature.
+     */
+    static long getSignatureKeyId(byte[] signature) throws IOException {
+        Object object = new BcPGPObjectFactory(signature).nextObject();
+        if (!(object instanceof PGPSignatureList) || ((PGPSignatureList) object).isEmpty()) {
+            throw new IOException("Not a detached signature");
+        }
+        return ((PGPSignatureList) object).get(0).getKeyID();
+    }
+
+    private byte[] signWithFallback(String data, Throwable cause) throws IOException {
+        if (fallback == null) {
+            throw new IOException("Signing failed", cause);
+        }
+        LOGGER.warn("Signing within the JVM failed, falling back", cause);
+        return fallback.sign(data);
+    }
+}
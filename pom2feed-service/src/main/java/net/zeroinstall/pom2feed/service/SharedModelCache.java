@@ -0,0 +1,48 @@
+package net.zeroinstall.pom2feed.service;
+
+import com.google.common.cache.*;
+import org.apache.maven.model.building.ModelCache;
+
+/**
+ * Caches Maven models across model building requests in a thread-safe manner.
+ * Only models of released versions are cached, since they never change.
+ */
+class SharedModelCache implements ModelCache {
+
+    private final Cache<String, Object> cache;
+
+    /**
+     * Creates a model cache.
+     *
+     * @param maximumSize The maximum number of models to keep.
+     */
+    public SharedModelCache(long maximumSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    @Override
+    public void put(String groupId, String artifactId, String version, String tag, Object data) {
+        if (!isSnapshot(version)) {
+            cache.put(getKey(groupId, artifactId, version, tag), data);
+        }
+    }
+
+    @Override
+    public Object get(String groupId, String artifactId, String version, String tag) {
+        return cache.getIfPresent(getKey(groupId, artifactId, version, tag));
+    }
+
+    private static String getKey(String groupId, String artifactId, String version, String tag) {
+        return groupId + ':' + artifactId + ':' + version + ':' + tag;
+    }
+
+    /**
+     * Determines whether a Maven version refers to a snapshot that may change
+     * over time.
+     */
+    static boolean isSnapshot(String version) {
+        return version == null || version.endsWith("-SNAPSHOT");
+    }
+}
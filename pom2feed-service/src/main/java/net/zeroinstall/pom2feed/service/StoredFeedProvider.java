@@ -0,0 +1,21 @@
+package net.zeroinstall.pom2feed.service;
+
+/**
+ * Provides Zero Install feeds that may have been generated a while ago, e.g.
+ * before the service was restarted. Such feeds are returned as they are; it
+ * is up to the caller to update them via
+ * {@link FeedProvider#updateFeed(String, String)} when they are outdated.
+ */
+public interface StoredFeedProvider extends FeedProvider {
+
+    /**
+     * Returns the time the feed for a specific Maven artifact was last
+     * generated or confirmed to be up-to-date.
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @return The time in milliseconds since the epoch; <code>-1</code> if no
+     * feed is stored for the artifact.
+     */
+    long getFeedTime(String artifactPath);
+}
@@ -0,0 +1,29 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.IOException;
+import javax.xml.xpath.XPathExpressionException;
+import org.apache.maven.model.building.ModelBuildingException;
+import org.xml.sax.SAXException;
+
+/**
+ * Provides Zero Install feeds for specific Maven artifacts piece by piece
+ * while they are being generated.
+ */
+public interface StreamingFeedProvider {
+
+    /**
+     * Provides a Zero Install feed for a specific Maven artifact, writing
+     * parts of it as soon as they are available.
+     *
+     * @param artifactPath The path used to request the artifact from a Maven
+     * server (artifact group and id combined).
+     * @param stream The stream to write the parts of the feed to. Is neither
+     * completed nor failed by this method.
+     * @return The complete serialized feed data, identical to the
+     * concatenation of the written parts.
+     * @throws IOException Download of one the Maven source files failed.
+     * @throws SAXException Parsing of one the Maven source files failed.
+     * @throws ModelBuildingException Maven source model is inconsistent.
+     */
+    String writeFeed(String artifactPath, FeedStream stream) throws IOException, SAXException, XPathExpressionException, ModelBuildingException;
+}
@@ -0,0 +1,22 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.*;
+import java.net.URL;
+import net.zeroinstall.pom2feed.core.HttpTransport;
+import org.apache.maven.model.building.UrlModelSource;
+
+/**
+ * Provides a POM from a URL using the shared {@link HttpTransport} rather than
+ * an unmanaged connection.
+ */
+class TransportModelSource extends UrlModelSource {
+
+    public TransportModelSource(URL pomUrl) {
+        super(pomUrl);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return HttpTransport.getDefault().openStream(getUrl());
+    }
+}
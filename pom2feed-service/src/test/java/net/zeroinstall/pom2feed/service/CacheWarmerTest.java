@@ -0,0 +1,125 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.*;
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Mockito.*;
+
+public class CacheWarmerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File snapshotFile;
+
+    @Before
+    public void before() {
+        this.snapshotFile = new File(folder.getRoot(), "hot-keys");
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        CacheWarmer warmer = new CacheWarmer(snapshotFile, 2);
+        for (int i = 0; i < 3; i++) {
+            warmer.recordAccess("group/popular/");
+        }
+        warmer.recordAccess("group/rare/");
+        warmer.recordAccess("group/other/");
+        warmer.recordAccess("group/other/");
+        assertEquals(asList("group/popular/", "group/other/", "group/rare/"), warmer.getHotKeys(10));
+
+        warmer.snapshot();
+        assertEquals(asList("3\tgroup/popular/", "2\tgroup/other/"), Files.readLines(snapshotFile, UTF_8));
+        assertEquals(asList("group/popular/", "group/other/"), warmer.getHotKeys(10));
+
+        CacheWarmer restored = new CacheWarmer(snapshotFile, 2);
+        assertEquals(asList("group/popular/", "group/other/"), restored.getHotKeys(10));
+    }
+
+    @Test
+    public void testSnapshotDecay() throws Exception {
+        CacheWarmer warmer = new CacheWarmer(snapshotFile, 10);
+        for (int i = 0; i < 4; i++) {
+            warmer.recordAccess("group/old/");
+        }
+        warmer.snapshot();
+        for (int i = 0; i < 3; i++) {
+            warmer.recordAccess("group/new/");
+        }
+
+        assertEquals(asList("group/new/", "group/old/"), warmer.getHotKeys(10));
+    }
+
+    @Test
+    public void testTrackingLimit() throws Exception {
+        CacheWarmer warmer = new CacheWarmer(snapshotFile, 1);
+        for (int i = 0; i < 20; i++) {
+            warmer.recordAccess("group/scanned" + i + "/");
+        }
+        warmer.recordAccess("group/scanned0/");
+        assertEquals(10, warmer.getHotKeys(100).size());
+        assertEquals(asList("group/scanned0/"), warmer.getHotKeys(1));
+
+        warmer.snapshot();
+        warmer.recordAccess("group/new/");
+        assertEquals(asList("group/new/", "group/scanned0/"), warmer.getHotKeys(100));
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        Files.write("5\tgroup/a/\n4\tgroup/b/\n3\tgroup/c/\n", snapshotFile, UTF_8);
+        CacheWarmer warmer = new CacheWarmer(snapshotFile, 10);
+        assertFalse(warmer.isReady());
+
+        final Map<String, SettableFuture<CachedResponse>> loads = new ConcurrentHashMap<String, SettableFuture<CachedResponse>>();
+        AsyncFeedProvider provider = new AsyncFeedProvider() {
+            @Override
+            public ListenableFuture<CachedResponse> getResponseAsync(String artifactPath) {
+                SettableFuture<CachedResponse> future = SettableFuture.create();
+                loads.put(artifactPath, future);
+                return future;
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            warmer.warmUp(provider, executor, 1, 2);
+            waitForLoad(loads, "group/a/");
+            assertFalse("concurrency limited", loads.containsKey("group/b/"));
+
+            loads.get("group/a/").set(mock(CachedResponse.class));
+            waitForLoad(loads, "group/b/");
+            assertFalse(warmer.isReady());
+
+            loads.get("group/b/").setException(new java.io.FileNotFoundException());
+            waitForLoad(loads, "group/c/");
+            assertTrue("ready after top keys", warmer.isReady());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWarmUpEmpty() throws Exception {
+        CacheWarmer warmer = new CacheWarmer(snapshotFile, 10);
+        AsyncFeedProvider provider = mock(AsyncFeedProvider.class);
+
+        warmer.warmUp(provider, MoreExecutors.directExecutor(), 4, 100);
+
+        assertTrue(warmer.isReady());
+        verifyZeroInteractions(provider);
+    }
+
+    private static void waitForLoad(Map<String, ?> loads, String artifactPath) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!loads.containsKey(artifactPath) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(artifactPath + " loaded", loads.containsKey(artifactPath));
+    }
+}
@@ -0,0 +1,116 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.util.zip.GZIPInputStream;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class CachedResponseTest {
+
+    private CachedResponse response;
+
+    @Before
+    public void before() {
+        this.response = new CachedResponse("<feed/>", "application/xml", 1234567, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testValidators() {
+        assertThat(response.getETag(false), startsWith("\""));
+        assertThat(response.getETag(false), endsWith("\""));
+        assertEquals(1234000, response.getLastModified());
+        assertNotEquals(response.getETag(false), new CachedResponse("<other/>", "application/xml", 1234567, Long.MAX_VALUE).getETag(false));
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(response.isNotModified(response.getETag(false), -1));
+        assertTrue(response.isNotModified("\"other\", " + response.getETag(false), -1));
+        assertTrue(response.isNotModified("W/" + response.getETag(false), -1));
+        assertTrue(response.isNotModified("*", -1));
+        assertFalse(response.isNotModified("\"other\"", -1));
+        assertFalse("If-Modified-Since ignored when entity tags present", response.isNotModified("\"other\"", 2000000));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        assertTrue(response.isNotModified(null, 1234000));
+        assertTrue(response.isNotModified(null, 2000000));
+        assertFalse(response.isNotModified(null, 1000000));
+        assertFalse(response.isNotModified(null, -1));
+    }
+
+    @Test
+    public void testReplace() {
+        CachedResponse same = response.replace("<feed/>", 0);
+        assertEquals(response.getETag(false), same.getETag(false));
+        assertSame(response.getBody(true), same.getBody(true));
+        assertEquals(response.getLastModified(), same.getLastModified());
+        assertTrue(same.isExpired());
+
+        CachedResponse changed = response.replace("<changed/>", Long.MAX_VALUE);
+        assertNotEquals(response.getETag(false), changed.getETag(false));
+        assertThat(changed.getLastModified(), greaterThan(response.getLastModified()));
+        assertFalse(changed.isExpired());
+    }
+
+    @Test
+    public void testRetryLater() {
+        CachedResponse outdated = response.replace("<feed/>", 1000);
+        CachedResponse retry = outdated.retryLater(Long.MAX_VALUE).retryLater(Long.MAX_VALUE);
+        assertSame(outdated.getBody(false), retry.getBody(false));
+        assertFalse(retry.isExpired());
+        assertEquals(2, retry.getFailedUpdates());
+        assertEquals(1000, retry.getOutdatedSince());
+
+        CachedResponse updated = retry.replace("<feed/>", Long.MAX_VALUE);
+        assertEquals(0, updated.getFailedUpdates());
+        assertEquals(Long.MAX_VALUE, updated.getOutdatedSince());
+    }
+
+    @Test
+    public void testMaxAge() {
+        assertEquals(60, response.getMaxAge(60));
+        assertEquals(0, response.replace("<feed/>", 0).getMaxAge(60));
+        assertThat(response.replace("<feed/>", System.currentTimeMillis() + 30000).getMaxAge(60), lessThanOrEqualTo(30L));
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        String content = "<feed>" + Strings.repeat("<implementation/>", 100) + "</feed>";
+        CachedResponse compressible = new CachedResponse(content, "application/xml", 0, Long.MAX_VALUE);
+
+        assertTrue(compressible.isCompressed());
+        assertArrayEquals(content.getBytes(UTF_8), compressible.getBody(false));
+        assertThat(compressible.getBody(true).length, lessThan(content.length()));
+        assertArrayEquals(content.getBytes(UTF_8),
+                ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressible.getBody(true)))));
+
+        assertNotEquals(compressible.getETag(false), compressible.getETag(true));
+        assertTrue(compressible.isNotModified(compressible.getETag(true), -1));
+    }
+
+    @Test
+    public void testGzipNotSmaller() {
+        assertFalse(response.isCompressed());
+        assertSame(response.getBody(false), response.getBody(true));
+        assertEquals(response.getETag(false), response.getETag(true));
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(CachedResponse.acceptsGzip("gzip"));
+        assertTrue(CachedResponse.acceptsGzip("deflate, gzip;q=0.5"));
+        assertTrue(CachedResponse.acceptsGzip("*"));
+        assertTrue(CachedResponse.acceptsGzip("GZIP"));
+        assertFalse(CachedResponse.acceptsGzip(null));
+        assertFalse(CachedResponse.acceptsGzip("identity"));
+        assertFalse(CachedResponse.acceptsGzip("gzip;q=0"));
+        assertFalse(CachedResponse.acceptsGzip("gzip; q=0.0, *"));
+        assertFalse(CachedResponse.acceptsGzip("*;q=0"));
+    }
+}
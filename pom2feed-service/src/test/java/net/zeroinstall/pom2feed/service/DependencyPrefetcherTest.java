@@ -0,0 +1,129 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import java.io.FileNotFoundException;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class DependencyPrefetcherTest {
+
+    private FeedProvider backingProvider;
+
+    @Before
+    public void before() throws Exception {
+        this.backingProvider = mock(FeedProvider.class);
+        when(backingProvider.getFeed("group/app/")).thenReturn(feed(
+                "<implementation id='1.0'><requires interface='http://maven.0install.net/group/old/'/></implementation>"
+                + "<implementation id='1.1'><requires interface='http://maven.0install.net/group/lib/'/>"
+                + "<requires interface='http://repo.roscidus.com/java/openjdk-jre'/></implementation>"));
+        when(backingProvider.getFeed("group/lib/")).thenReturn(feed(
+                "<implementation id='2.0'><requires interface='http://maven.0install.net/group/transitive/'/></implementation>"));
+        when(backingProvider.getFeed("group/transitive/")).thenReturn(feed(
+                "<implementation id='3.0'><requires interface='http://maven.0install.net/group/deep/'/></implementation>"));
+    }
+
+    private static String feed(String implementations) {
+        return "<interface xmlns='http://zero-install.sourceforge.net/2004/injector/interface'><name>Test</name>"
+                + implementations + "</interface>";
+    }
+
+    @Test
+    public void testGetDependencies() throws Exception {
+        FeedCache cache = new FeedCache(backingProvider, directExecutor());
+        DependencyPrefetcher prefetcher = new DependencyPrefetcher(cache, new URL("http://maven.0install.net/"), directExecutor(), 1, 100);
+
+        assertEquals(asList("group/lib/"), prefetcher.getDependencies(backingProvider.getFeed("group/app/")));
+        assertEquals(Collections.emptyList(), prefetcher.getDependencies(feed("")));
+        assertEquals(Collections.emptyList(), prefetcher.getDependencies("not xml"));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        FeedCache cache = new FeedCache(backingProvider, directExecutor())
+                .enablePrefetching(new URL("http://maven.0install.net/"), directExecutor(), 2, 100);
+
+        cache.getFeed("group/app/");
+
+        verify(backingProvider).getFeed("group/lib/");
+        verify(backingProvider).getFeed("group/transitive/");
+        verify(backingProvider, never()).getFeed("group/deep/");
+        verify(backingProvider, never()).getFeed("group/old/");
+        assertTrue(cache.isCached("group/transitive/"));
+    }
+
+    @Test
+    public void testPrefetchCachedOnly() throws Exception {
+        when(backingProvider.getFeed("group/lib/")).thenThrow(new FileNotFoundException());
+        when(backingProvider.getFeed("group/other/")).thenReturn(feed(
+                "<implementation id='1.0'><requires interface='http://maven.0install.net/group/lib/'/></implementation>"));
+        FeedCache cache = new FeedCache(backingProvider, directExecutor())
+                .enableNegativeCaching(10, 1, TimeUnit.MINUTES)
+                .enablePrefetching(new URL("http://maven.0install.net/"), directExecutor(), 1, 100);
+
+        cache.getFeed("group/app/");
+        cache.getFeed("group/other/");
+
+        verify(backingProvider, times(1)).getFeed("group/lib/");
+    }
+
+    @Test
+    public void testRequestsNotQueuedBehindPrefetches() throws Exception {
+        final CountDownLatch prefetchStarted = new CountDownLatch(1);
+        final CountDownLatch prefetchReleased = new CountDownLatch(1);
+        when(backingProvider.getFeed("group/lib/")).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                prefetchStarted.countDown();
+                prefetchReleased.await();
+                return feed("");
+            }
+        });
+        when(backingProvider.getFeed("group/other/")).thenReturn(feed(""));
+        ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+        ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor();
+        try {
+            FeedCache cache = new FeedCache(backingProvider, directExecutor())
+                    .enableAsyncLoading(loadExecutor)
+                    .enablePrefetching(new URL("http://maven.0install.net/"), prefetchExecutor, 1, 100);
+
+            cache.getResponseAsync("group/app/").get(5, TimeUnit.SECONDS);
+            assertTrue(prefetchStarted.await(5, TimeUnit.SECONDS));
+
+            // The only load thread is not occupied by the pending prefetch
+            assertNotNull(cache.getResponseAsync("group/other/").get(5, TimeUnit.SECONDS));
+        } finally {
+            prefetchReleased.countDown();
+            loadExecutor.shutdown();
+            prefetchExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueFull() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        FeedCache cache = new FeedCache(backingProvider, directExecutor())
+                .enablePrefetching(new URL("http://maven.0install.net/"), new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        if (!tasks.isEmpty()) {
+                            throw new RejectedExecutionException();
+                        }
+                        tasks.add(command);
+                    }
+                }, 1, 100);
+
+        cache.getFeed("group/app/");
+        tasks.get(0).run();
+
+        assertEquals(1, tasks.size());
+        assertFalse(cache.isCached("group/lib/"));
+        verify(backingProvider, never()).getFeed("group/lib/");
+    }
+}
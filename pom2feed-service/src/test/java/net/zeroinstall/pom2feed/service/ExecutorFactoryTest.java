@@ -0,0 +1,66 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class ExecutorFactoryTest {
+
+    @Test
+    public void testPlatformThreads() throws Exception {
+        ExecutorFactory factory = new ExecutorFactory(false);
+        assertFalse(factory.isVirtualThreads());
+
+        ExecutorService executor = factory.newFixedThreadPool("test-%d", 2);
+        try {
+            Thread thread = executor.submit(new Callable<Thread>() {
+                @Override
+                public Thread call() {
+                    return Thread.currentThread();
+                }
+            }).get();
+            assertEquals("test-0", thread.getName());
+            assertTrue(thread.isDaemon());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsFallback() {
+        ExecutorFactory factory = new ExecutorFactory(true);
+        assertEquals(ExecutorFactory.isVirtualThreadSupported(), factory.isVirtualThreads());
+    }
+
+    @Test
+    public void testLimitConcurrency() throws Exception {
+        ExecutorService executor = ExecutorFactory.limitConcurrency(Executors.newCachedThreadPool(), 2);
+        try {
+            final AtomicInteger running = new AtomicInteger();
+            final CountDownLatch release = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        running.incrementAndGet();
+                        release.await();
+                        running.decrementAndGet();
+                        return null;
+                    }
+                }));
+            }
+            Thread.sleep(200);
+            assertEquals(2, running.get());
+
+            release.countDown();
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class FailureMemoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File logFile;
+
+    @Before
+    public void before() {
+        this.logFile = new File(folder.getRoot(), "failures.log");
+    }
+
+    @Test
+    public void testPersist() throws Exception {
+        FailureMemo memo = new FailureMemo(logFile, 1, TimeUnit.HOURS);
+        memo.recordFailure("group", "artifact", "1.0", new IOException("broken\n\tPOM"));
+        memo.close();
+
+        memo = new FailureMemo(logFile, 1, TimeUnit.HOURS);
+        try {
+            assertTrue(memo.isFailing("group", "artifact", "1.0"));
+            assertFalse(memo.isFailing("group", "artifact", "1.1"));
+
+            List<FailureMemo.Failure> failures = memo.getFailures();
+            assertEquals(1, failures.size());
+            assertEquals("group:artifact:1.0", failures.get(0).getCoordinates());
+            assertEquals("java.io.IOException: broken POM", failures.get(0).getReason());
+        } finally {
+            memo.close();
+        }
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        FailureMemo memo = new FailureMemo(logFile, 0, TimeUnit.HOURS);
+        try {
+            memo.recordFailure("group", "artifact", "1.0", new IOException());
+
+            assertFalse(memo.isFailing("group", "artifact", "1.0"));
+            assertTrue(memo.getFailures().isEmpty());
+        } finally {
+            memo.close();
+        }
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        FailureMemo memo = new FailureMemo(logFile, 1, TimeUnit.HOURS);
+        memo.recordFailure("group", "artifact", "1.0", new IOException());
+        memo.recordFailure("group", "artifact", "1.0", new IOException());
+        memo.close();
+        long size = logFile.length();
+
+        new FailureMemo(logFile, 1, TimeUnit.HOURS).close();
+        assertEquals(size / 2, logFile.length());
+        new FailureMemo(logFile, 0, TimeUnit.HOURS).close();
+        assertEquals(0, logFile.length());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        FailureMemo memo = new FailureMemo(logFile, 1, TimeUnit.HOURS);
+        memo.close();
+        memo.recordFailure("group", "artifact", "1.0", new IOException());
+
+        assertTrue(memo.isFailing("group", "artifact", "1.0"));
+        assertEquals(0, logFile.length());
+    }
+}
@@ -0,0 +1,200 @@
+package net.zeroinstall.pom2feed.service;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class FeedCacheTest {
+
+    private FeedProvider backingProvider;
+
+    @Before
+    public void before() throws Exception {
+        this.backingProvider = mock(FeedProvider.class);
+        when(backingProvider.getFeed("group/artifact/")).thenReturn("old");
+        when(backingProvider.updateFeed("group/artifact/", "old")).thenReturn("new");
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        FeedCache cache = new FeedCache(backingProvider, directExecutor());
+
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        assertEquals("old", cache.getFeed("group/artifact/"));
+
+        verify(backingProvider, times(1)).getFeed("group/artifact/");
+        verify(backingProvider, never()).updateFeed(anyString(), anyString());
+    }
+
+    @Test
+    public void testStaleWhileRefreshing() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        FeedCache cache = new FeedCache(backingProvider, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        }, 0, TimeUnit.MINUTES);
+
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        assertEquals(1, tasks.size()); // Only one update at a time
+
+        tasks.get(0).run();
+        assertEquals("new", cache.getFeed("group/artifact/"));
+        verify(backingProvider).updateFeed("group/artifact/", "old");
+    }
+
+    @Test
+    public void testRefreshFailed() throws Exception {
+        when(backingProvider.updateFeed("group/artifact/", "old")).thenThrow(new IOException());
+        FeedCache cache = new FeedCache(backingProvider, directExecutor(), 0, TimeUnit.MINUTES);
+
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        CachedResponse response = cache.getResponse("group/artifact/");
+        assertEquals("old", response.getContent());
+        assertEquals(1, response.getFailedUpdates());
+        assertFalse("Failed updates are retried later", response.isExpired());
+        cache.getFeed("group/artifact/");
+
+        verify(backingProvider, times(1)).updateFeed("group/artifact/", "old");
+    }
+
+    @Test
+    public void testMaxStaleness() throws Exception {
+        when(backingProvider.getFeed("group/artifact/")).thenReturn("old").thenThrow(new IOException());
+        when(backingProvider.updateFeed("group/artifact/", "old")).thenThrow(new IOException());
+        FeedCache cache = new FeedCache(backingProvider, directExecutor(), 0, TimeUnit.MINUTES).reportStaleness(0, TimeUnit.MILLISECONDS);
+
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        Thread.sleep(10);
+        // Outdated feeds are kept until an update succeeds, however long it takes
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        assertEquals("old", cache.getResponseAsync("group/artifact/").get().getContent());
+        verify(backingProvider, times(1)).getFeed("group/artifact/");
+    }
+
+    @Test
+    public void testStoredOutdated() throws Exception {
+        FeedProvider storedProvider = mock(StoredFeedProvider.class);
+        when(storedProvider.getFeed("group/artifact/")).thenReturn("old");
+        when(storedProvider.updateFeed("group/artifact/", "old")).thenReturn("new");
+        when(((StoredFeedProvider) storedProvider).getFeedTime("group/artifact/")).thenReturn(1000L);
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        FeedCache cache = new FeedCache(storedProvider, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+
+        // Feeds stored long ago are served right away and updated in the background
+        CachedResponse response = cache.getResponse("group/artifact/");
+        assertEquals("old", response.getContent());
+        assertEquals(1000, response.getLastModified());
+        assertTrue(response.isExpired());
+        assertEquals(1, tasks.size());
+        verify(storedProvider, never()).updateFeed(anyString(), anyString());
+
+        tasks.get(0).run();
+        assertEquals("new", cache.getFeed("group/artifact/"));
+    }
+
+    @Test
+    public void testNegativeCaching() throws Exception {
+        when(backingProvider.getFeed("group/missing/")).thenThrow(new FileNotFoundException());
+        FeedCache cache = new FeedCache(backingProvider, directExecutor()).enableNegativeCaching(10, 1, TimeUnit.MINUTES);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getFeed("group/missing/");
+                fail("Expected FileNotFoundException");
+            } catch (FileNotFoundException ex) {
+            }
+        }
+        verify(backingProvider, times(1)).getFeed("group/missing/");
+    }
+
+    @Test
+    public void testNegativeCachingTransient() throws Exception {
+        when(backingProvider.getFeed("group/artifact/")).thenThrow(new IOException()).thenReturn("old");
+        FeedCache cache = new FeedCache(backingProvider, directExecutor()).enableNegativeCaching(10, 1, TimeUnit.MINUTES);
+
+        try {
+            cache.getFeed("group/artifact/");
+            fail("Expected IOException");
+        } catch (IOException ex) {
+        }
+        assertEquals("old", cache.getFeed("group/artifact/"));
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1);
+        when(backingProvider.getFeed("group/artifact/")).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                latch.await();
+                return "old";
+            }
+        });
+        try {
+            FeedCache cache = new FeedCache(backingProvider, directExecutor()).enableAsyncLoading(executor);
+
+            ListenableFuture<CachedResponse> first = cache.getResponseAsync("group/artifact/");
+            ListenableFuture<CachedResponse> second = cache.getResponseAsync("group/artifact/");
+            assertSame("Concurrent requests share a load", first, second);
+            assertFalse(first.isDone());
+
+            latch.countDown();
+            assertEquals("old", first.get().getContent());
+            assertTrue("Cached feeds are returned immediately", cache.getResponseAsync("group/artifact/").isDone());
+            verify(backingProvider, times(1)).getFeed("group/artifact/");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        FeedProvider streamingProvider = mock(FeedProvider.class, withSettings().extraInterfaces(StreamingFeedProvider.class));
+        when(((StreamingFeedProvider) streamingProvider).writeFeed(eq("group/artifact/"), any(FeedStream.class))).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                FeedStream stream = (FeedStream) invocation.getArguments()[1];
+                stream.write("ol");
+                stream.write("d");
+                return "old";
+            }
+        });
+        FeedCache cache = new FeedCache(streamingProvider, directExecutor()).enableStreaming();
+
+        FeedStream stream = cache.getFeedStream("group/artifact/");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        stream.copyTo(output);
+        assertEquals("old", output.toString("UTF-8"));
+
+        assertNull("Cached feeds are not streamed", cache.getFeedStream("group/artifact/"));
+        assertEquals("old", cache.getFeed("group/artifact/"));
+        verify(streamingProvider, never()).getFeed(anyString());
+    }
+
+    @Test
+    public void testStreamingFailure() throws Exception {
+        FeedProvider streamingProvider = mock(FeedProvider.class, withSettings().extraInterfaces(StreamingFeedProvider.class));
+        when(((StreamingFeedProvider) streamingProvider).writeFeed(eq("group/missing/"), any(FeedStream.class))).thenThrow(new FileNotFoundException());
+        FeedCache cache = new FeedCache(streamingProvider, directExecutor()).enableStreaming().enableNegativeCaching(10, 1, TimeUnit.MINUTES);
+
+        assertTrue(cache.getFeedStream("group/missing/").awaitStart(1, TimeUnit.SECONDS) instanceof FileNotFoundException);
+        assertNull("Failures are cached", cache.getFeedStream("group/missing/"));
+    }
+}
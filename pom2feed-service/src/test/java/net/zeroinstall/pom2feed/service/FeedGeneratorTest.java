@@ -2,17 +2,32 @@ package net.zeroinstall.pom2feed.service;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.base.Joiner;
+import com.google.common.io.BaseEncoding;
+import java.math.BigInteger;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.*;
 import net.zeroinstall.model.Feed;
 import net.zeroinstall.model.InterfaceDocument;
-import static org.junit.Assert.assertEquals;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.bc.*;
+import static org.junit.Assert.*;
 import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Mockito.*;
 
 public class FeedGeneratorTest {
 
     @Rule
     public WireMockRule wireMockRule = new WireMockRule(63956);
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
     private FeedGenerator feedGenerator;
 
     @Before
@@ -52,4 +67,336 @@ public class FeedGeneratorTest {
         assertEquals("1.0", feed.getImplementationArray(0).getId());
         assertEquals("1.1", feed.getImplementationArray(1).getId());
     }
+
+    @Test
+    public void testLoadParallel() throws Exception {
+        stubMetadata("1.0", "1.1", "1.2");
+        stubVersion("1.0", 500);
+        stubVersion("1.1", 0);
+        stubFor(get(urlEqualTo("/group/artifact/1.2/artifact-1.2.pom")).willReturn(aResponse().withStatus(404)));
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            feedGenerator.enableParallelVersions(executor, 3);
+            Feed feed = InterfaceDocument.Factory.parse(feedGenerator.getFeed("group/artifact/")).getInterface();
+
+            assertEquals(2, feed.getImplementationArray().length);
+            assertEquals("1.0", feed.getImplementationArray(0).getId());
+            assertEquals("1.1", feed.getImplementationArray(1).getId());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testModelCache() throws Exception {
+        stubMetadata("1.0", "1.1");
+        stubFor(get(urlEqualTo("/group/parent/1/parent-1.pom")).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion><groupId>group</groupId><artifactId>parent</artifactId><packaging>pom</packaging><version>1</version><name>Test Artifact</name></project>")));
+        for (String version : new String[]{"1.0", "1.1"}) {
+            stubFor(get(urlEqualTo("/group/artifact/" + version + "/artifact-" + version + ".pom")).willReturn(aResponse().withStatus(200).
+                    withBody("<project><modelVersion>4.0.0</modelVersion><parent><groupId>group</groupId><artifactId>parent</artifactId><version>1</version></parent><artifactId>artifact</artifactId><version>" + version + "</version></project>")));
+            stubFor(head(urlEqualTo("/group/artifact/" + version + "/artifact-" + version + ".jar")).
+                    willReturn(aResponse().withStatus(200).withHeader("Content-Length", "1024")));
+            stubFor(get(urlEqualTo("/group/artifact/" + version + "/artifact-" + version + ".jar.sha1")).
+                    willReturn(aResponse().withStatus(200).withBody("123abc")));
+        }
+
+        feedGenerator.getFeed("group/artifact/");
+        Feed feed = InterfaceDocument.Factory.parse(feedGenerator.getFeed("group/artifact/")).getInterface();
+
+        verify(1, getRequestedFor(urlEqualTo("/group/parent/1/parent-1.pom")));
+        verify(1, getRequestedFor(urlEqualTo("/group/artifact/1.0/artifact-1.0.pom")));
+        verify(1, getRequestedFor(urlEqualTo("/group/artifact/1.1/artifact-1.1.pom")));
+        assertEquals(2, feed.getImplementationArray().length);
+    }
+
+    @Test
+    public void testLightweightModels() throws Exception {
+        stubMetadata("1.0");
+        stubFor(get(urlEqualTo("/group/parent/1/parent-1.pom")).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion><groupId>group</groupId><artifactId>parent</artifactId><packaging>pom</packaging><version>1</version>"
+                        + "<properties><dep.version>2.0</dep.version></properties><licenses><license><name>License</name></license></licenses>"
+                        + "<dependencyManagement><dependencies><dependency><groupId>dep</groupId><artifactId>dep</artifactId><version>${dep.version}</version></dependency></dependencies></dependencyManagement>"
+                        + "<build><plugins><plugin><artifactId>maven-compiler-plugin</artifactId><configuration><target>1.6</target></configuration></plugin></plugins></build></project>")));
+        stubFor(get(urlEqualTo("/group/artifact/1.0/artifact-1.0.pom")).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion><parent><groupId>group</groupId><artifactId>parent</artifactId><version>1</version></parent><artifactId>artifact</artifactId><version>1.0</version>"
+                        + "<dependencies><dependency><groupId>dep</groupId><artifactId>dep</artifactId></dependency><dependency><groupId>dep</groupId><artifactId>other</artifactId><version>${project.version}</version><optional>true</optional></dependency></dependencies></project>")));
+        stubFor(head(urlEqualTo("/group/artifact/1.0/artifact-1.0.jar")).
+                willReturn(aResponse().withStatus(200).withHeader("Content-Length", "1024")));
+        stubFor(get(urlEqualTo("/group/artifact/1.0/artifact-1.0.jar.sha1")).
+                willReturn(aResponse().withStatus(200).withBody("123abc")));
+
+        String expected = feedGenerator.getFeed("group/artifact/");
+        FeedGenerator lightweightGenerator = new FeedGenerator(new URL("http://localhost:63956/"), new URL("http://maven.0install.net/"), null)
+                .enableLightweightModels(false);
+
+        assertEquals(expected, lightweightGenerator.getFeed("group/artifact/"));
+    }
+
+    @Test
+    public void testIncrementalUpdate() throws Exception {
+        stubMetadata("1.0");
+        stubVersion("1.0", 0);
+        feedGenerator.enableIncrementalUpdates();
+        String previousFeed = feedGenerator.getFeed("group/artifact/");
+
+        assertSame(previousFeed, feedGenerator.updateFeed("group/artifact/", previousFeed));
+
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.1", 0);
+        String feed = feedGenerator.updateFeed("group/artifact/", previousFeed);
+
+        verify(1, headRequestedFor(urlEqualTo("/group/artifact/1.0/artifact-1.0.jar")));
+        verify(1, headRequestedFor(urlEqualTo("/group/artifact/1.1/artifact-1.1.jar")));
+        FeedGenerator fullGenerator = new FeedGenerator(new URL("http://localhost:63956/"), new URL("http://maven.0install.net/"), null);
+        assertEquals(fullGenerator.getFeed("group/artifact/"), feed);
+    }
+
+    @Test
+    public void testImplementationStore() throws Exception {
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.0", 0);
+        stubVersion("1.1", 0);
+        feedGenerator.enableImplementationStore(folder.getRoot());
+        String expectedFeed = new FeedGenerator(new URL("http://localhost:63956/"), new URL("http://maven.0install.net/"), null)
+                .getFeed("group/artifact/");
+        assertEquals(expectedFeed, feedGenerator.getFeed("group/artifact/"));
+
+        // Only the latest POM is fetched again for the feed metadata
+        reset();
+        stubMetadata("1.0", "1.1");
+        stubFor(get(urlEqualTo("/group/artifact/1.1/artifact-1.1.pom")).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion><groupId>group</groupId><artifactId>artifact</artifactId><packaging>jar</packaging><version>1.1</version><name>Test Artifact</name></project>")));
+        FeedGenerator otherGenerator = new FeedGenerator(new URL("http://localhost:63956/"), new URL("http://maven.0install.net/"), null)
+                .enableImplementationStore(folder.getRoot());
+        assertEquals(expectedFeed, otherGenerator.getFeed("group/artifact/"));
+        verify(0, getRequestedFor(urlEqualTo("/group/artifact/1.0/artifact-1.0.pom")));
+        verify(0, headRequestedFor(urlMatching("/group/artifact/.*")));
+        verify(0, getRequestedFor(urlMatching("/group/artifact/.*\\.sha1")));
+    }
+
+    @Test
+    public void testFailureMemo() throws Exception {
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.0", 0);
+        stubVersion("1.1", 0);
+        stubFor(get(urlEqualTo("/group/artifact/1.0/artifact-1.0.pom")).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion><groupId>group</groupId><artifactId>artifact</artifactId><packaging>jar</packaging><version>1.0</version><parent><groupId>group</groupId><artifactId>missing</artifactId><version>1</version></parent></project>")));
+        FailureMemo failureMemo = new FailureMemo(folder.newFile(), 1, TimeUnit.HOURS);
+        feedGenerator.enableFailureMemo(failureMemo);
+
+        try {
+            assertEquals(1, InterfaceDocument.Factory.parse(feedGenerator.getFeed("group/artifact/")).getInterface().getImplementationArray().length);
+            assertTrue(failureMemo.isFailing("group", "artifact", "1.0"));
+            assertEquals(1, InterfaceDocument.Factory.parse(feedGenerator.getFeed("group/artifact/")).getInterface().getImplementationArray().length);
+        } finally {
+            failureMemo.close();
+        }
+
+        verify(1, getRequestedFor(urlEqualTo("/group/artifact/1.0/artifact-1.0.pom")));
+    }
+
+    @Test
+    public void testConditionalMetadata() throws Exception {
+        stubMetadata("1.0");
+        stubVersion("1.0", 0);
+        String previousFeed = feedGenerator.getFeed("group/artifact/");
+        stubFor(get(urlEqualTo("/group/artifact/maven-metadata.xml")).withHeader("If-None-Match", equalTo("\"1.0\"")).
+                willReturn(aResponse().withStatus(304)));
+
+        assertSame(previousFeed, feedGenerator.updateFeed("group/artifact/", previousFeed));
+        verify(1, getRequestedFor(urlEqualTo("/group/artifact/1.0/artifact-1.0.pom")));
+    }
+
+    @Test
+    public void testConditionalMetadataIncomplete() throws Exception {
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.0", 0);
+        stubVersion("1.1", 0);
+        stubFor(get(urlEqualTo("/group/artifact/1.1/artifact-1.1.jar.sha1")).willReturn(aResponse().withStatus(503)));
+        String previousFeed = feedGenerator.getFeed("group/artifact/");
+        assertEquals(1, InterfaceDocument.Factory.parse(previousFeed).getInterface().getImplementationArray().length);
+        stubFor(get(urlEqualTo("/group/artifact/maven-metadata.xml")).withHeader("If-None-Match", equalTo("\"1.0,1.1\"")).
+                willReturn(aResponse().withStatus(304)));
+        stubVersion("1.1", 0);
+
+        // Versions skipped due to transient errors are retried even though the metadata did not change
+        String feed = feedGenerator.updateFeed("group/artifact/", previousFeed);
+        assertEquals(2, InterfaceDocument.Factory.parse(feed).getInterface().getImplementationArray().length);
+    }
+
+    @Test
+    public void testConditionalMetadataFailureExpired() throws Exception {
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.0", 0);
+        stubFor(get(urlEqualTo("/group/artifact/1.1/artifact-1.1.pom")).willReturn(aResponse().withStatus(404)));
+        FailureMemo failureMemo = new FailureMemo(folder.newFile(), 500, TimeUnit.MILLISECONDS);
+        feedGenerator.enableFailureMemo(failureMemo);
+
+        try {
+            String previousFeed = feedGenerator.getFeed("group/artifact/");
+            assertEquals(1, InterfaceDocument.Factory.parse(previousFeed).getInterface().getImplementationArray().length);
+            stubFor(get(urlEqualTo("/group/artifact/maven-metadata.xml")).withHeader("If-None-Match", equalTo("\"1.0,1.1\"")).
+                    willReturn(aResponse().withStatus(304)));
+            stubVersion("1.1", 0);
+            assertSame(previousFeed, feedGenerator.updateFeed("group/artifact/", previousFeed));
+
+            // Versions skipped due to the failure memo are retried once their backoff expired
+            Thread.sleep(600);
+            String feed = feedGenerator.updateFeed("group/artifact/", previousFeed);
+            assertEquals(2, InterfaceDocument.Factory.parse(feed).getInterface().getImplementationArray().length);
+        } finally {
+            failureMemo.close();
+        }
+    }
+
+    @Test
+    public void testWriteFeed() throws Exception {
+        stubMetadata("1.0", "1.1", "1.2");
+        stubVersion("1.0", 0);
+        stubFor(get(urlEqualTo("/group/artifact/1.1/artifact-1.1.pom")).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion><groupId>group</groupId><artifactId>artifact</artifactId><packaging>jar</packaging><version>1.1</version>"
+                        + "<name>Test &amp; Artifact</name><description>Line 1\nLine 2</description>"
+                        + "<dependencies><dependency><groupId>group</groupId><artifactId>lib</artifactId><version>[1.0,2.0)</version></dependency></dependencies></project>")));
+        stubFor(head(urlEqualTo("/group/artifact/1.1/artifact-1.1.jar")).
+                willReturn(aResponse().withStatus(200).withHeader("Content-Length", "2048")));
+        stubFor(get(urlEqualTo("/group/artifact/1.1/artifact-1.1.jar.sha1")).
+                willReturn(aResponse().withStatus(200).withBody("456def")));
+        stubFor(get(urlEqualTo("/group/artifact/1.2/artifact-1.2.pom")).willReturn(aResponse().withStatus(404)));
+
+        String expected = feedGenerator.getFeed("group/artifact/");
+        FeedStream stream = new FeedStream();
+        String actual = feedGenerator.writeFeed("group/artifact/", stream);
+        stream.complete();
+
+        assertEquals(expected, actual);
+        java.io.ByteArrayOutputStream streamed = new java.io.ByteArrayOutputStream();
+        stream.copyTo(streamed);
+        assertEquals(expected, streamed.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSignatureReuse() throws Exception {
+        PGPKeyPair key = generateKeyPair();
+        byte[] firstSignature = sign(key, "first"), secondSignature = sign(key, "second");
+        FeedSigner signer = mockSigner(key);
+        when(signer.sign(anyString())).thenReturn(firstSignature, secondSignature);
+        feedGenerator.enableSigning(signer);
+        stubMetadata("1.0");
+        stubVersion("1.0", 0);
+
+        String previousFeed = feedGenerator.getFeed("group/artifact/");
+        assertTrue(previousFeed.endsWith(signatureBlock(firstSignature)));
+        // Metadata is downloaded again but results in the same feed
+        assertEquals(previousFeed, feedGenerator.updateFeed("group/artifact/", previousFeed));
+        verify(signer, times(1)).sign(anyString());
+
+        // Signatures of stored feeds are reused after a restart
+        FeedSigner otherSigner = mockSigner(key);
+        FeedGenerator otherGenerator = new FeedGenerator(new URL("http://localhost:63956/"), new URL("http://maven.0install.net/"), null)
+                .enableSigning(otherSigner);
+        assertEquals(previousFeed, otherGenerator.updateFeed("group/artifact/", previousFeed));
+        verify(otherSigner, never()).sign(anyString());
+
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.1", 0);
+        String feed = feedGenerator.updateFeed("group/artifact/", previousFeed);
+        assertTrue(feed.endsWith(signatureBlock(secondSignature)));
+        verify(signer, times(2)).sign(anyString());
+    }
+
+    @Test
+    public void testSignatureNotReusedAfterKeyChange() throws Exception {
+        PGPKeyPair oldKey = generateKeyPair(), newKey = generateKeyPair();
+        byte[] oldSignature = sign(oldKey, "old"), newSignature = sign(newKey, "new");
+        FeedSigner oldSigner = mockSigner(oldKey);
+        when(oldSigner.sign(anyString())).thenReturn(oldSignature);
+        feedGenerator.enableSigning(oldSigner);
+        stubMetadata("1.0");
+        stubVersion("1.0", 0);
+        String previousFeed = feedGenerator.getFeed("group/artifact/");
+
+        // Stored feeds signed with the old key are signed again after a restart
+        FeedSigner restartedSigner = mockSigner(newKey);
+        when(restartedSigner.sign(anyString())).thenReturn(newSignature);
+        FeedGenerator otherGenerator = new FeedGenerator(new URL("http://localhost:63956/"), new URL("http://maven.0install.net/"), null)
+                .enableSigning(restartedSigner);
+        assertTrue(otherGenerator.updateFeed("group/artifact/", previousFeed).endsWith(signatureBlock(newSignature)));
+
+        // Cached signatures of the old key are not reused either
+        FeedSigner newSigner = mockSigner(newKey);
+        when(newSigner.sign(anyString())).thenReturn(newSignature);
+        feedGenerator.enableSigning(newSigner);
+        assertTrue(feedGenerator.updateFeed("group/artifact/", previousFeed).endsWith(signatureBlock(newSignature)));
+        verify(newSigner, times(1)).sign(anyString());
+    }
+
+    private static PGPKeyPair generateKeyPair() throws PGPException {
+        RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+        generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), new SecureRandom(), 1024, 12));
+        return new BcPGPKeyPair(PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), new Date());
+    }
+
+    private static byte[] sign(PGPKeyPair key, String data) throws Exception {
+        PGPSignatureGenerator generator = new PGPSignatureGenerator(
+                new BcPGPContentSignerBuilder(PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256));
+        generator.init(PGPSignature.BINARY_DOCUMENT, key.getPrivateKey());
+        generator.update(data.getBytes("UTF-8"));
+        return generator.generate().getEncoded();
+    }
+
+    private static FeedSigner mockSigner(PGPKeyPair key) throws Exception {
+        FeedSigner signer = mock(FeedSigner.class);
+        when(signer.getKeyId()).thenReturn(key.getKeyID());
+        return signer;
+    }
+
+    private static String signatureBlock(byte[] signature) {
+        return "\n<!-- Base64 Signature\n" + BaseEncoding.base64().encode(signature) + "\n-->\n";
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        stubMetadata("1.0", "1.1");
+        stubVersion("1.0", 0);
+        stubVersion("1.1", 0);
+        GenerationMetrics metrics = new GenerationMetrics();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            feedGenerator.enableMetrics(metrics).enableParallelVersions(executor, 2);
+            feedGenerator.getFeed("group/artifact/");
+        } finally {
+            executor.shutdown();
+        }
+
+        java.io.StringWriter writer = new java.io.StringWriter();
+        metrics.writeTo(new MetricsWriter(new java.io.PrintWriter(writer)));
+        String text = writer.toString();
+        // Metadata plus POM, HEAD and sha1 for each version, including requests made by version workers
+        assertTrue(text, text.contains("pom2feed_feed_upstream_requests_sum 7\n"));
+        assertTrue(text, text.contains("pom2feed_stage_duration_seconds_count{stage=\"metadata\"} 1\n"));
+        assertTrue(text, text.contains("pom2feed_stage_duration_seconds_count{stage=\"head\"} 2\n"));
+        assertTrue(text, text.contains("pom2feed_stage_duration_seconds_count{stage=\"serialization\"} 1\n"));
+    }
+
+    private void stubMetadata(String... versions) {
+        StringBuilder body = new StringBuilder("<metadata>\n<groupId>group</groupId>\n<artifactId>artifact</artifactId>\n<versioning>\n<versions>\n");
+        for (String version : versions) {
+            body.append("<version>").append(version).append("</version>\n");
+        }
+        body.append("</versions>\n</versioning>\n</metadata>");
+        stubFor(get(urlEqualTo("/group/artifact/maven-metadata.xml")).willReturn(aResponse().withStatus(200).
+                withHeader("ETag", "\"" + Joiner.on(',').join(versions) + "\"").
+                withBody(body.toString())));
+    }
+
+    private void stubVersion(String version, int delay) {
+        stubFor(get(urlEqualTo("/group/artifact/" + version + "/artifact-" + version + ".pom")).willReturn(aResponse().withStatus(200).withFixedDelay(delay).
+                withBody("<project><modelVersion>4.0.0</modelVersion><groupId>group</groupId><artifactId>artifact</artifactId><packaging>jar</packaging><version>" + version + "</version><name>Test Artifact</name></project>")));
+        stubFor(head(urlEqualTo("/group/artifact/" + version + "/artifact-" + version + ".jar")).
+                willReturn(aResponse().withStatus(200).withHeader("Content-Length", "1024")));
+        stubFor(get(urlEqualTo("/group/artifact/" + version + "/artifact-" + version + ".jar.sha1")).
+                willReturn(aResponse().withStatus(200).withBody("123abc")));
+    }
 }
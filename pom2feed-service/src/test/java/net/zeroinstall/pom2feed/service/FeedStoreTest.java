@@ -0,0 +1,70 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.File;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Mockito.*;
+
+public class FeedStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private FeedProvider backingProvider;
+
+    @Before
+    public void before() {
+        this.backingProvider = mock(FeedProvider.class);
+    }
+
+    @Test
+    public void testPersist() throws Exception {
+        when(backingProvider.getFeed("group/artifact/")).thenReturn("<interface>ä</interface>");
+
+        assertEquals("<interface>ä</interface>", new FeedStore(backingProvider, folder.getRoot()).getFeed("group/artifact/"));
+        assertEquals("<interface>ä</interface>", new FeedStore(backingProvider, folder.getRoot()).getFeed("group/artifact/"));
+
+        verify(backingProvider, times(1)).getFeed("group/artifact/");
+    }
+
+    @Test
+    public void testOutdated() throws Exception {
+        when(backingProvider.getFeed("group/artifact/")).thenReturn("old");
+        FeedStore store = new FeedStore(backingProvider, folder.getRoot());
+        assertEquals(-1, store.getFeedTime("group/artifact/"));
+        store.getFeed("group/artifact/");
+        File file = folder.getRoot().listFiles()[0].listFiles()[0];
+        assertTrue(file.setLastModified(1000));
+
+        // Outdated feeds are served as they are rather than updated while waiting
+        assertEquals("old", store.getFeed("group/artifact/"));
+        assertEquals(1000, store.getFeedTime("group/artifact/"));
+        verify(backingProvider, never()).updateFeed(anyString(), anyString());
+    }
+
+    @Test
+    public void testUpdateUnchanged() throws Exception {
+        when(backingProvider.getFeed("group/artifact/")).thenReturn("feed");
+        when(backingProvider.updateFeed("group/artifact/", "feed")).thenReturn("feed");
+        FeedStore store = new FeedStore(backingProvider, folder.getRoot());
+        store.getFeed("group/artifact/");
+        File file = folder.getRoot().listFiles()[0].listFiles()[0];
+        assertTrue(file.setLastModified(1000));
+
+        assertEquals("feed", store.updateFeed("group/artifact/", "feed"));
+
+        // Unchanged feeds are marked as current
+        assertTrue(store.getFeedTime("group/artifact/") > 1000);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        when(backingProvider.updateFeed("group/artifact/", "old")).thenReturn("new");
+        FeedStore store = new FeedStore(backingProvider, new File(folder.getRoot(), "store"));
+
+        assertEquals("new", store.updateFeed("group/artifact/", "old"));
+        assertEquals("new", store.getFeed("group/artifact/"));
+
+        verify(backingProvider, never()).getFeed("group/artifact/");
+    }
+}
@@ -0,0 +1,81 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.*;
+import java.util.concurrent.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class FeedStreamTest {
+
+    @Test
+    public void testCopyWhileWriting() throws Exception {
+        final FeedStream stream = new FeedStream();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final CountDownLatch firstChunk = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> reader = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    stream.copyTo(new FilterOutputStream(output) {
+                        @Override
+                        public void flush() throws IOException {
+                            super.flush();
+                            firstChunk.countDown();
+                        }
+                    });
+                    return null;
+                }
+            });
+
+            stream.write("<interface>");
+            assertTrue("first chunk flushed before completion", firstChunk.await(5, TimeUnit.SECONDS));
+            stream.write("</interface>");
+            stream.complete();
+
+            reader.get(5, TimeUnit.SECONDS);
+            assertEquals("<interface></interface>", output.toString("UTF-8"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGetContent() {
+        FeedStream stream = new FeedStream();
+        stream.write("<interface>ä");
+        stream.write("</interface>");
+        assertEquals("<interface>ä</interface>", stream.getContent());
+    }
+
+    @Test
+    public void testFailureBeforeStart() throws Exception {
+        FeedStream stream = new FeedStream();
+        IOException failure = new FileNotFoundException();
+        stream.fail(failure);
+
+        assertSame(failure, stream.awaitStart(1, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void testStartTimeout() throws Exception {
+        new FeedStream().awaitStart(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testFailureAfterStart() throws Exception {
+        FeedStream stream = new FeedStream();
+        stream.write("<interface>");
+        stream.fail(new IOException());
+
+        assertNull(stream.awaitStart(1, TimeUnit.SECONDS));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            stream.copyTo(output);
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IOException);
+        }
+        assertEquals("<interface>", output.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,47 @@
+package net.zeroinstall.pom2feed.service;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import static net.zeroinstall.pom2feed.service.GenerationMetrics.Stage.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class GenerationMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram(1, 10);
+        histogram.record(0.5);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(100);
+
+        assertEquals("pom2feed_test_bucket{le=\"1\"} 2\n"
+                + "pom2feed_test_bucket{le=\"10\"} 3\n"
+                + "pom2feed_test_bucket{le=\"+Inf\"} 4\n"
+                + "pom2feed_test_sum 106.5\n"
+                + "pom2feed_test_count 4\n", write(histogram, ""));
+        assertThat(write(histogram, "stage=\"model\""), containsString("pom2feed_test_bucket{stage=\"model\",le=\"10\"} 3\n"));
+    }
+
+    @Test
+    public void testStages() {
+        GenerationMetrics metrics = new GenerationMetrics();
+        metrics.recordStage(SIGNING, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20));
+
+        StringWriter writer = new StringWriter();
+        metrics.writeTo(new MetricsWriter(new PrintWriter(writer)));
+        String text = writer.toString();
+        assertThat(text, containsString("# TYPE pom2feed_stage_duration_seconds histogram\n"));
+        assertThat(text, containsString("pom2feed_stage_duration_seconds_bucket{stage=\"signing\",le=\"0.01\"} 0\n"));
+        assertThat(text, containsString("pom2feed_stage_duration_seconds_bucket{stage=\"signing\",le=\"0.025\"} 1\n"));
+        assertThat(text, containsString("pom2feed_stage_duration_seconds_count{stage=\"model\"} 0\n"));
+    }
+
+    private static String write(Histogram histogram, String labels) {
+        StringWriter writer = new StringWriter();
+        histogram.writeTo(new MetricsWriter(new PrintWriter(writer)), "pom2feed_test", labels);
+        return writer.toString();
+    }
+}
@@ -0,0 +1,53 @@
+package net.zeroinstall.pom2feed.service;
+
+import net.zeroinstall.model.Implementation;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class ImplementationStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Implementation createImplementation(String version) {
+        Implementation implementation = Implementation.Factory.newInstance();
+        implementation.setId(version);
+        implementation.setVersion(version);
+        return implementation;
+    }
+
+    @Test
+    public void testPersist() throws Exception {
+        new ImplementationStore(folder.getRoot(), "ns").put("group", "artifact", "1.0", createImplementation("1.0"));
+
+        Implementation implementation = new ImplementationStore(folder.getRoot(), "ns").get("group", "artifact", "1.0");
+        assertEquals("1.0", implementation.getId());
+        assertEquals("1.0", implementation.getVersion());
+        assertNull(new ImplementationStore(folder.getRoot(), "ns").get("group", "artifact", "1.1"));
+    }
+
+    @Test
+    public void testNamespace() throws Exception {
+        new ImplementationStore(folder.getRoot(), "ns").put("group", "artifact", "1.0", createImplementation("1.0"));
+
+        assertNull(new ImplementationStore(folder.getRoot(), "other").get("group", "artifact", "1.0"));
+    }
+
+    @Test
+    public void testFormatVersion() throws Exception {
+        int formatVersion = ImplementationStore.FORMAT_VERSION;
+        new ImplementationStore(folder.getRoot(), "ns", formatVersion).put("group", "artifact", "1.0", createImplementation("1.0"));
+
+        assertNotNull(new ImplementationStore(folder.getRoot(), "ns").get("group", "artifact", "1.0"));
+        assertNull(new ImplementationStore(folder.getRoot(), "ns", formatVersion + 1).get("group", "artifact", "1.0"));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        ImplementationStore store = new ImplementationStore(folder.getRoot(), "ns");
+        store.put("group", "artifact", "1.0-SNAPSHOT", createImplementation("1.0-SNAPSHOT"));
+
+        assertNull(store.get("group", "artifact", "1.0-SNAPSHOT"));
+    }
+}
@@ -0,0 +1,77 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import java.net.URL;
+import java.util.Collections;
+import org.apache.maven.model.*;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class LightweightModelReaderTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(63956);
+    private LightweightModelReader reader;
+
+    @Before
+    public void before() throws Exception {
+        this.reader = new LightweightModelReader(new URL("http://localhost:63956/"),
+                new SharedModelCache(100), Collections.singletonList("jdk8"));
+        stubPom("group/parent/1/parent-1.pom", "<groupId>group</groupId><artifactId>parent</artifactId><version>1</version><packaging>pom</packaging>"
+                + "<properties><dep.version>2.0</dep.version><java.target>1.6</java.target></properties>"
+                + "<licenses><license><name>License</name></license></licenses>"
+                + "<dependencyManagement><dependencies>"
+                + "<dependency><groupId>dep</groupId><artifactId>managed</artifactId><version>${dep.version}</version><scope>runtime</scope></dependency>"
+                + "</dependencies></dependencyManagement>"
+                + "<dependencies><dependency><groupId>dep</groupId><artifactId>inherited</artifactId><version>${project.version}</version></dependency></dependencies>"
+                + "<build><plugins><plugin><artifactId>maven-compiler-plugin</artifactId><configuration><target>${java.target}</target></configuration></plugin></plugins></build>"
+                + "<profiles><profile><id>jdk8</id><activation><jdk>1.8</jdk></activation></profile></profiles>");
+    }
+
+    @Test
+    public void testInheritance() throws Exception {
+        stubPom("group/artifact/1.0/artifact-1.0.pom", "<parent><groupId>group</groupId><artifactId>parent</artifactId><version>1</version></parent>"
+                + "<artifactId>artifact</artifactId><version>1.0</version>"
+                + "<properties><dep.version>3.0</dep.version></properties>"
+                + "<dependencies><dependency><groupId>dep</groupId><artifactId>managed</artifactId></dependency></dependencies>");
+
+        Model model = reader.read("group", "artifact", "1.0");
+
+        assertEquals("group", model.getGroupId());
+        assertEquals("artifact", model.getArtifactId());
+        assertEquals("1.0", model.getVersion());
+        assertEquals("jar", model.getPackaging());
+        assertEquals("License", model.getLicenses().get(0).getName());
+        assertEquals(2, model.getDependencies().size());
+        assertEquals("managed", model.getDependencies().get(0).getArtifactId());
+        assertEquals("3.0", model.getDependencies().get(0).getVersion());
+        assertEquals("runtime", model.getDependencies().get(0).getScope());
+        assertEquals("inherited", model.getDependencies().get(1).getArtifactId());
+        assertEquals("1.0", model.getDependencies().get(1).getVersion());
+        Plugin compilerPlugin = model.getBuild().getPluginsAsMap().get("org.apache.maven.plugins:maven-compiler-plugin");
+        assertEquals("1.6", ((Xpp3Dom) compilerPlugin.getConfiguration()).getChild("target").getValue());
+    }
+
+    @Test
+    public void testProfileActivation() throws Exception {
+        stubPom("group/artifact/1.0/artifact-1.0.pom", "<groupId>group</groupId><artifactId>artifact</artifactId><version>1.0</version>"
+                + "<profiles><profile><id>other</id><activation><activeByDefault>true</activeByDefault></activation></profile></profiles>");
+
+        assertNull(reader.read("group", "artifact", "1.0"));
+    }
+
+    @Test
+    public void testUnknownExpression() throws Exception {
+        stubPom("group/artifact/1.0/artifact-1.0.pom", "<groupId>group</groupId><artifactId>artifact</artifactId><version>1.0</version>"
+                + "<dependencies><dependency><groupId>dep</groupId><artifactId>dep</artifactId><version>${env.VERSION}</version></dependency></dependencies>");
+
+        assertNull(reader.read("group", "artifact", "1.0"));
+    }
+
+    private static void stubPom(String path, String content) {
+        stubFor(get(urlEqualTo("/" + path)).willReturn(aResponse().withStatus(200).
+                withBody("<project><modelVersion>4.0.0</modelVersion>" + content + "</project>")));
+    }
+}
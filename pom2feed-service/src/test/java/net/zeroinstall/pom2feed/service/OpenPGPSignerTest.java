@@ -0,0 +1,182 @@
+package net.zeroinstall.pom2feed.service;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import java.io.*;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.*;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.bc.BcPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.bc.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+import static org.mockito.Mockito.*;
+
+public class OpenPGPSignerTest {
+
+    private final static char[] PASSPHRASE = "secret".toCharArray();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private PGPSecretKeyRing keyRing;
+    private File keyringFile;
+
+    @Before
+    public void before() throws Exception {
+        this.keyRing = newKeyRingGenerator(generateKeyPair(0), null).generateSecretKeyRing();
+        this.keyringFile = folder.newFile("secring.gpg");
+        writeKeyring(keyRing);
+    }
+
+    /**
+     * Generates an RSA key pair.
+     *
+     * @param age The number of hours since the key was created.
+     */
+    private static PGPKeyPair generateKeyPair(int age) throws PGPException {
+        RSAKeyPairGenerator generator = new RSAKeyPairGenerator();
+        generator.init(new RSAKeyGenerationParameters(BigInteger.valueOf(0x10001), new SecureRandom(), 1024, 12));
+        return new BcPGPKeyPair(PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(),
+                new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(age)));
+    }
+
+    private static PGPKeyRingGenerator newKeyRingGenerator(PGPKeyPair masterKey, PGPSignatureSubpacketVector hashedSubpackets) throws PGPException {
+        PGPDigestCalculator sha1 = new BcPGPDigestCalculatorProvider().get(HashAlgorithmTags.SHA1);
+        return new PGPKeyRingGenerator(PGPSignature.POSITIVE_CERTIFICATION, masterKey,
+                "pom2feed Test <test@example.com>", sha1, hashedSubpackets, null,
+                new BcPGPContentSignerBuilder(PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256),
+                new BcPBESecretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1).build(PASSPHRASE));
+    }
+
+    /**
+     * Creates self-signature subpackets for a signing key.
+     *
+     * @param validHours The number of hours after its creation the key
+     * expires; <code>0</code> for no expiry.
+     */
+    private static PGPSignatureSubpacketVector signingKey(int validHours) {
+        PGPSignatureSubpacketGenerator generator = new PGPSignatureSubpacketGenerator();
+        generator.setKeyFlags(false, KeyFlags.SIGN_DATA);
+        if (validHours > 0) {
+            generator.setKeyExpirationTime(false, TimeUnit.HOURS.toSeconds(validHours));
+        }
+        return generator.generate();
+    }
+
+    private void writeKeyring(PGPSecretKeyRing ring) throws IOException {
+        OutputStream stream = new FileOutputStream(keyringFile);
+        try {
+            ring.encode(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testSign() throws Exception {
+        OpenPGPSigner signer = new OpenPGPSigner(keyringFile, "test@EXAMPLE.com", PASSPHRASE, directExecutor(), null);
+        assertVerifies("<interface>Zürich</interface>\n", signer.sign("<interface>Zürich</interface>\n"));
+    }
+
+    @Test
+    public void testGetKeyId() throws Exception {
+        OpenPGPSigner signer = new OpenPGPSigner(keyringFile, "test@EXAMPLE.com", PASSPHRASE, directExecutor(), null);
+        assertEquals(keyRing.getSecretKey().getKeyID(), signer.getKeyId());
+        assertEquals(signer.getKeyId(), OpenPGPSigner.getSignatureKeyId(signer.sign("data")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testGetSignatureKeyIdInvalid() throws Exception {
+        OpenPGPSigner.getSignatureKeyId(new byte[]{1});
+    }
+
+    @Test
+    public void testSelectByKeyID() throws Exception {
+        String keyID = "0x" + Long.toHexString(keyRing.getPublicKey().getKeyID());
+        OpenPGPSigner signer = new OpenPGPSigner(keyringFile, keyID, PASSPHRASE, directExecutor(), null);
+        assertVerifies("data", signer.sign("data"));
+    }
+
+    @Test
+    public void testSelectNewestValidKey() throws Exception {
+        PGPKeyPair masterKey = generateKeyPair(100);
+        PGPKeyPair validKey = generateKeyPair(50);
+        PGPKeyPair expiredKey = generateKeyPair(20);
+        PGPKeyPair revokedKey = generateKeyPair(10);
+        PGPKeyRingGenerator generator = newKeyRingGenerator(masterKey, null);
+        generator.addSubKey(validKey, signingKey(0), null);
+        generator.addSubKey(expiredKey, signingKey(10), null);
+        generator.addSubKey(revokedKey, signingKey(0), null);
+        PGPSecretKeyRing ring = generator.generateSecretKeyRing();
+
+        PGPSignatureGenerator revocationGenerator = new PGPSignatureGenerator(
+                new BcPGPContentSignerBuilder(PGPPublicKey.RSA_GENERAL, HashAlgorithmTags.SHA256));
+        revocationGenerator.init(PGPSignature.SUBKEY_REVOCATION, masterKey.getPrivateKey());
+        PGPPublicKey revokedPublicKey = PGPPublicKey.addCertification(ring.getPublicKey(revokedKey.getKeyID()),
+                revocationGenerator.generateCertification(masterKey.getPublicKey(), revokedKey.getPublicKey()));
+        ring = PGPSecretKeyRing.insertSecretKey(ring,
+                PGPSecretKey.replacePublicKey(ring.getSecretKey(revokedKey.getKeyID()), revokedPublicKey));
+        writeKeyring(ring);
+
+        OpenPGPSigner signer = new OpenPGPSigner(keyringFile, "pom2feed", PASSPHRASE, directExecutor(), null);
+        assertVerifies(ring.getPublicKey(validKey.getKeyID()), "data", signer.sign("data"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testExpiredKeyRing() throws Exception {
+        writeKeyring(newKeyRingGenerator(generateKeyPair(20), signingKey(10)).generateSecretKeyRing());
+        new OpenPGPSigner(keyringFile, "pom2feed", PASSPHRASE, directExecutor(), null);
+    }
+
+    @Test
+    public void testWorkerPool() throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            OpenPGPSigner signer = new OpenPGPSigner(keyringFile, "pom2feed", PASSPHRASE, workers, null);
+            assertVerifies("data", signer.sign("data"));
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnknownKey() throws Exception {
+        new OpenPGPSigner(keyringFile, "other@example.com", PASSPHRASE, directExecutor(), null);
+    }
+
+    @Test(expected = IOException.class)
+    public void testWrongPassphrase() throws Exception {
+        new OpenPGPSigner(keyringFile, "pom2feed", "wrong".toCharArray(), directExecutor(), null);
+    }
+
+    @Test
+    public void testFallback() throws Exception {
+        ExecutorService workers = Executors.newSingleThreadExecutor();
+        workers.shutdown();
+        FeedSigner fallback = mock(FeedSigner.class);
+        when(fallback.sign("data")).thenReturn(new byte[]{1, 2, 3});
+
+        OpenPGPSigner signer = new OpenPGPSigner(keyringFile, "pom2feed", PASSPHRASE, workers, fallback);
+        assertArrayEquals(new byte[]{1, 2, 3}, signer.sign("data"));
+    }
+
+    private void assertVerifies(String data, byte[] signatureData) throws Exception {
+        assertVerifies(keyRing.getPublicKey(), data, signatureData);
+    }
+
+    private static void assertVerifies(PGPPublicKey key, String data, byte[] signatureData) throws Exception {
+        PGPSignature signature = ((PGPSignatureList) new BcPGPObjectFactory(signatureData).nextObject()).get(0);
+        assertEquals(PGPSignature.BINARY_DOCUMENT, signature.getSignatureType());
+        assertEquals(key.getKeyID(), signature.getKeyID());
+        signature.init(new BcPGPContentVerifierBuilderProvider(), key);
+        signature.update(data.getBytes(UTF_8));
+        assertTrue(signature.verify());
+    }
+}
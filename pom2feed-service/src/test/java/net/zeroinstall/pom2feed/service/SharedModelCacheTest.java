@@ -0,0 +1,31 @@
+package net.zeroinstall.pom2feed.service;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+public class SharedModelCacheTest {
+
+    private SharedModelCache cache;
+
+    @Before
+    public void before() {
+        this.cache = new SharedModelCache(10);
+    }
+
+    @Test
+    public void testRelease() {
+        Object data = new Object();
+        cache.put("group", "artifact", "1.0", "raw", data);
+
+        assertSame(data, cache.get("group", "artifact", "1.0", "raw"));
+        assertNull(cache.get("group", "artifact", "1.0", "import"));
+        assertNull(cache.get("group", "artifact", "1.1", "raw"));
+    }
+
+    @Test
+    public void testSnapshot() {
+        cache.put("group", "artifact", "1.0-SNAPSHOT", "raw", new Object());
+
+        assertNull(cache.get("group", "artifact", "1.0-SNAPSHOT", "raw"));
+    }
+}